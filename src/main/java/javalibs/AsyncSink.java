@@ -0,0 +1,149 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A LogSink with its own bounded buffer and thread. write() only hands the line over, the
+ * sink's thread takes whatever has piled up and passes it to writeBatch() in one go. When
+ * the buffer is full the overflow policy decides, so a slow target never holds up the TSL
+ * writer thread unless BLOCK was asked for. The number of dropped lines is written to the
+ * target ahead of the next batch.
+ */
+public abstract class AsyncSink implements LogSink {
+    private final String name;
+    private final BlockingQueue<String> buffer;
+    private final int batchSize;
+    private final TSL.Overflow policy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedTotal = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    /**
+     * @param name Name for the sink's thread and its drop messages
+     * @param capacity Max lines waiting to be written
+     * @param batchSize Max lines handed to writeBatch() at once
+     * @param policy BLOCK, DROP_NEWEST, or DROP_OLDEST
+     */
+    protected AsyncSink(String name, int capacity, int batchSize, TSL.Overflow policy){
+        if(policy != TSL.Overflow.BLOCK && policy != TSL.Overflow.DROP_NEWEST
+                && policy != TSL.Overflow.DROP_OLDEST)
+            throw new IllegalArgumentException("AsyncSink() -- " + policy + " needs a " +
+                    "level, use BLOCK, DROP_NEWEST, or DROP_OLDEST");
+        this.name = name;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.policy = policy;
+        this.worker = new Thread(this::drainLoop, name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Start the sink's thread, call at the end of the subclass constructor
+     */
+    protected final void start(){
+        worker.start();
+    }
+
+    /**
+     * Write the lines to the target, called on the sink's own thread only
+     */
+    protected abstract void writeBatch(List<String> lines);
+
+    /**
+     * Release the target, called on the sink's thread after the last writeBatch()
+     */
+    protected void closeTarget(){ }
+
+    @Override
+    public final void write(String line){
+        if(closed || buffer.offer(line)) return;
+        switch(policy){
+            case BLOCK:
+                try{
+                    buffer.put(line);
+                }
+                catch(InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    countDropped(1);
+                }
+                break;
+            case DROP_OLDEST:
+                if(buffer.poll() != null) countDropped(1);
+                if(!buffer.offer(line)) countDropped(1);
+                break;
+            default:
+                countDropped(1);
+        }
+    }
+
+    /**
+     * Write out what's buffered and stop the sink's thread, waits at most
+     * TSL.SHUTDOWN_TIMEOUT_MS
+     */
+    @Override
+    public void close(){
+        closed = true;
+        try{
+            worker.join(Math.max(1, TSL.SHUTDOWN_TIMEOUT_MS));
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Total number of lines this sink has dropped
+     */
+    public long droppedCount(){
+        return droppedTotal.get();
+    }
+
+    /**
+     * For subclasses that lose lines on their own, e.g. while a connection is down
+     */
+    protected final void countDropped(long lines){
+        dropped.addAndGet(lines);
+        droppedTotal.addAndGet(lines);
+    }
+
+    private void drainLoop(){
+        List<String> batch = new ArrayList<>(batchSize);
+        try{
+            while(true){
+                String first = buffer.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null){
+                    if(closed) break;
+                    continue;
+                }
+                long lost = dropped.getAndSet(0);
+                if(lost > 0)
+                    batch.add("*** " + name + " dropped " + lost + " lines");
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - batch.size());
+                try{
+                    writeBatch(batch);
+                }
+                catch(RuntimeException e){
+                    System.err.println("*** " + name + " write failed: " + e);
+                }
+                batch.clear();
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        finally{
+            closeTarget();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The buffer behind Out when Out.BUFFERED_OUTPUT is on. Text is copied into a large char
+ * buffer and only encoded and handed to System.out when the buffer fills up, when flush()
+ * is called, every flushIntervalMillis, and at JVM exit. One write and one flush per buffer
+ * instead of per line.
+ *
+ * With a writer thread the buffer is double buffered: a full buffer is swapped for the
+ * spare and the encoding / write happens on the writer thread, so callers only ever copy
+ * chars. Without one, whichever caller fills the buffer writes it out.
+ *
+ * appendLock is held for a whole append so lines never interleave, even while the caller
+ * waits for the spare. swapLock only covers the spare / pending hand off, which lets the
+ * writer thread give a buffer back without ever needing appendLock.
+ *
+ * NOTE: Writes to System.out that don't go through Out aren't ordered with what's sitting
+ * in the buffer, flush() first if that matters.
+ */
+final class BufferedStdout {
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private final long flushIntervalNanos;
+    private final boolean doubleBuffered;
+    private volatile long flushedAt = System.nanoTime();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Guarded by appendLock
+    private char[] active;
+    private int pos;
+
+    private final Object swapLock = new Object();
+    // Guarded by swapLock. spare is null while its buffer is pending or being written
+    private char[] spare;
+    private char[] pending;
+    private int pendingLength;
+
+    /**
+     * @param capacity Size of the char buffer, two of them with a writer thread
+     * @param flushIntervalMillis Longest text waits in the buffer, 0 for no timed flush
+     * @param writerThread Encode and write on a dedicated thread
+     */
+    BufferedStdout(int capacity, long flushIntervalMillis, boolean writerThread){
+        capacity = Math.max(capacity, 1024);
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate((int)Math.ceil(capacity * encoder.maxBytesPerChar()));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMillis));
+        this.doubleBuffered = writerThread;
+        this.active = new char[capacity];
+        if(writerThread || flushIntervalMillis > 0){
+            if(writerThread) this.spare = new char[capacity];
+            Thread writer = new Thread(writerThread ? this::writerLoop : this::timerLoop,
+                    "Out-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "Out-exit-flush"));
+    }
+
+    void append(CharSequence s){
+        appendLock.lock();
+        try{
+            copy(s);
+        }
+        finally{
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Append both as one unit, nothing from another thread can land in between
+     */
+    void append(CharSequence s, CharSequence suffix){
+        appendLock.lock();
+        try{
+            copy(s);
+            copy(suffix);
+        }
+        finally{
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Write out everything appended so far. With a writer thread, waits (up to 5s, this
+     * also runs from the shutdown hook) until it's been handed to System.out
+     */
+    void flush(){
+        appendLock.lock();
+        try{
+            if(!doubleBuffered){
+                writeOut(active, pos);
+                pos = 0;
+                return;
+            }
+            if(pos > 0) handOff();
+        }
+        finally{
+            appendLock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        synchronized(swapLock){
+            try{
+                while(pending != null && System.nanoTime() < deadline)
+                    swapLock.wait(10);
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Caller holds appendLock
+     */
+    private void copy(CharSequence s){
+        int off = 0;
+        int len = s.length();
+        while(off < len){
+            int n = Math.min(active.length - pos, len - off);
+            // Don't split a surrogate pair across two buffers
+            if(off + n < len && n > 0 && Character.isHighSurrogate(s.charAt(off + n - 1)))
+                --n;
+            if(s instanceof String)
+                ((String)s).getChars(off, off + n, active, pos);
+            else
+                for(int i = 0; i < n; ++i)
+                    active[pos + i] = s.charAt(off + i);
+            pos += n;
+            off += n;
+            if(off < len) spill();
+        }
+    }
+
+    /**
+     * Caller holds appendLock and the active buffer can't take any more
+     */
+    private void spill(){
+        if(!doubleBuffered){
+            writeOut(active, pos);
+            pos = 0;
+            return;
+        }
+        handOff();
+    }
+
+    /**
+     * Double buffered, caller holds appendLock: give the active buffer to the writer thread
+     * and carry on with the spare, waiting for the writer to give it back if it's busy
+     */
+    private void handOff(){
+        synchronized(swapLock){
+            boolean interrupted = false;
+            while(spare == null){
+                try{
+                    swapLock.wait();
+                }
+                catch(InterruptedException e){
+                    interrupted = true;
+                }
+            }
+            if(interrupted) Thread.currentThread().interrupt();
+            pending = active;
+            pendingLength = pos;
+            active = spare;
+            spare = null;
+            swapLock.notifyAll();
+        }
+        pos = 0;
+    }
+
+    private void writerLoop(){
+        long pollMillis = flushIntervalNanos > 0
+                ? Math.max(1, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos)) : 0;
+        while(true){
+            char[] buf;
+            int len;
+            synchronized(swapLock){
+                try{
+                    if(pending == null) swapLock.wait(pollMillis);
+                }
+                catch(InterruptedException e){
+                    return;
+                }
+                buf = pending;
+                len = pendingLength;
+            }
+            if(buf == null){
+                timedHandOff();
+                continue;
+            }
+            writeOut(buf, len);
+            synchronized(swapLock){
+                pending = null;
+                spare = buf;
+                swapLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writer thread: nothing filled up, but hand off what's there if it's waited long
+     * enough. Skipped if a caller is busy appending, that caller will hand off soon enough
+     */
+    private void timedHandOff(){
+        if(flushIntervalNanos == 0 || !appendLock.tryLock()) return;
+        try{
+            boolean spareFree;
+            synchronized(swapLock){
+                spareFree = spare != null;
+            }
+            if(pos > 0 && spareFree && flushDue())
+                handOff();
+        }
+        finally{
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Timed flush without double buffering
+     */
+    private void timerLoop(){
+        try{
+            while(true){
+                Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos)));
+                appendLock.lock();
+                try{
+                    if(pos > 0 && flushDue()){
+                        writeOut(active, pos);
+                        pos = 0;
+                    }
+                }
+                finally{
+                    appendLock.unlock();
+                }
+            }
+        }
+        catch(InterruptedException e){
+            // Exiting
+        }
+    }
+
+    private boolean flushDue(){
+        return System.nanoTime() - flushedAt >= flushIntervalNanos;
+    }
+
+    /**
+     * Encode chars and write them to whatever System.out is right now. Only ever runs on
+     * one thread at a time, either under appendLock or on the writer thread
+     */
+    private void writeOut(char[] chars, int len){
+        flushedAt = System.nanoTime();
+        if(len == 0) return;
+        PrintStream out = System.out;
+        CharBuffer in = CharBuffer.wrap(chars, 0, len);
+        encoder.reset();
+        while(true){
+            boolean done = !encoder.encode(in, bytes, true).isOverflow();
+            if(done) encoder.flush(bytes);
+            out.write(bytes.array(), 0, bytes.position());
+            bytes.clear();
+            if(done) break;
+        }
+        out.flush();
+    }
+}
@@ -26,7 +26,7 @@ public class CSVDataNormalizer {
     private List<CSVRecord> allRecords = new ArrayList<>();
     private Map<String, Integer> headerMap = new HashMap<>();
     private final TSL log = TSL.get();
-    private Map<String, Pair<Double, Double>> colsToMaxMinPairs = new HashMap<>();
+    private Map<String, DoublePair> colsToMinMaxPairs = new HashMap<>();
     private Map<Integer, String> colNumToName = new HashMap<>();
     private int numCols = 0;
     private String[] headersInOrder;
@@ -105,35 +105,27 @@ public class CSVDataNormalizer {
                         Double parsed = NumUtils.getDoubleFromStr(rec.get(colName));
                         if(parsed == null){
                             log.warn("CSVDataNormalizer.normalize: could not parse double" +
-                                    " from column '" + colName + "'" +
-                                    " at record " + rec.getRecordNumber() +
-                                    ", raw value: '" + rec.get(colName) + "'." +
-                                    " Using 0.0.");
+                                    " from column '%s' at record %d, raw value: '%s'." +
+                                    " Using 0.0.",
+                                    colName, rec.getRecordNumber(), rec.get(colName));
                             parsed = 0.0;
                         }
                         double curVal = parsed;
-                        Pair<Double, Double> maxMin = this.colsToMaxMinPairs.get(colName);
-
-                        /*
-                         * NOTE: Pair stores (max, min) — left()=max, right()=min.
-                         * normalizeBetweenZeroOne(min, max, val) so args are intentionally
-                         * reversed here. The math is correct but easy to misread.
-                         * SUGGESTED FIX: Swap Pair construction to Pair(min, max) so
-                         * left()=min and right()=max, making call sites self-documenting.
-                         */
+                        // left() is the min, right() is the max
+                        DoublePair minMax = this.colsToMinMaxPairs.get(colName);
                         double normal = NumUtils.normalizeBetweenZeroOne(
-                                maxMin.right(), maxMin.left(), curVal);
+                                minMax.left(), minMax.right(), curVal);
                         if(normal > 1.0){
                             log.warn(
-                                    "Normalized value greater than 1.0: " + normal +
-                                    " from curVal: " + curVal + " setting normal to 1."
+                                    "Normalized value greater than 1.0: %s" +
+                                    " from curVal: %s setting normal to 1.", normal, curVal
                             );
                             normal = 1.0;
                         }
                         else if(normal < 0.0){
                             log.warn(
-                                    "Normalized value less than 0.0: " + normal +
-                                    " from curVal : " + curVal + " setting normal to 0."
+                                    "Normalized value less than 0.0: %s" +
+                                    " from curVal : %s setting normal to 0.", normal, curVal
                             );
                             normal = 0.0;
                         }
@@ -156,38 +148,37 @@ public class CSVDataNormalizer {
             for(Map.Entry<String, List<String>> entry :
                     this.columnsWithLinkings.entrySet()){
                 this.columnsToNormalize.add(entry.getKey());
-                this.colsToMaxMinPairs.put(
+                this.colsToMinMaxPairs.put(
                         entry.getKey(),
-                        getMaxMinFromLinkedColumns(entry.getKey()));
+                        getMinMaxFromLinkedColumns(entry.getKey()));
             }
         }
         else {
             for(String col : this.columnsToNormalize)
-                this.colsToMaxMinPairs.put(col, getMaxMinFromCol(col));
+                this.colsToMinMaxPairs.put(col, getMinMaxFromCol(col));
         }
     }
 
-    private Pair<Double, Double> getMaxMinFromCol(String columnName) {
+    private DoublePair getMinMaxFromCol(String columnName) {
         double max = Double.NEGATIVE_INFINITY;
         double min = Double.POSITIVE_INFINITY;
         for(CSVRecord record : this.allRecords){
             Double parsed = NumUtils.getDoubleFromStr(record.get(columnName));
             if(parsed == null){
-                log.warn("CSVDataNormalizer.getMaxMinFromCol: could not parse double" +
-                        " from column '" + columnName + "'" +
-                        " at record " + record.getRecordNumber() +
-                        ", raw value: '" + record.get(columnName) + "'." +
-                        " Skipping record for min/max calculation.");
+                log.warn("CSVDataNormalizer.getMinMaxFromCol: could not parse double" +
+                        " from column '%s' at record %d, raw value: '%s'." +
+                        " Skipping record for min/max calculation.",
+                        columnName, record.getRecordNumber(), record.get(columnName));
                 continue;
             }
             double val = parsed;
             if(val > max) max = val;
             if(val < min) min = val;
         }
-        return new Pair<>(max, min);
+        return new DoublePair(min, max);
     }
 
-    private Pair<Double, Double> getMaxMinFromLinkedColumns(String columnName) {
+    private DoublePair getMinMaxFromLinkedColumns(String columnName) {
         /*
          * SUSPECTED BUG: cols is the actual List stored in columnsWithLinkings, not a
          * copy. Calling cols.add(columnName) mutates the original map entry. If this
@@ -202,11 +193,11 @@ public class CSVDataNormalizer {
         double min = Double.POSITIVE_INFINITY;
 
         for(String col : cols){
-            Pair<Double, Double> maxMin = getMaxMinFromCol(col);
-            if(maxMin.left() > max) max = maxMin.left();
-            if(maxMin.right() < min) min = maxMin.right();
+            DoublePair minMax = getMinMaxFromCol(col);
+            if(minMax.left() < min) min = minMax.left();
+            if(minMax.right() > max) max = minMax.right();
         }
-        return new Pair<>(max, min);
+        return new DoublePair(min, max);
     }
 
     private void readCSV(){
@@ -0,0 +1,263 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * The class, function, and line a log call came from. Found by walking up the stack past
+ * the javalibs frames that do the logging (TSL, Logic, MTOut) to the first frame of the
+ * caller.
+ *
+ * On Java 9+ this uses StackWalker, looked up reflectively since the library is built for
+ * Java 8, which only materializes the handful of frames it has to look at. On Java 8 it
+ * falls back to new Throwable().getStackTrace(). Either way each call site is resolved once
+ * and cached, so repeated calls from the same line get the same CallSite back and the
+ * formatted strings are built exactly once.
+ */
+final class CallSite {
+    // Frames from these classes are the logger itself, never the caller
+    private static final Set<String> INTERNAL = new HashSet<>(Arrays.asList(
+            CallSite.class.getName(), TSL.class.getName(), Logic.class.getName(),
+            MTOut.class.getName(), LogLimiter.class.getName()));
+    // Plenty for any real program, stops generated code from growing the cache forever
+    private static final int MAX_CACHED = 4096;
+    private static final Map<Object, CallSite> CACHE = new ConcurrentHashMap<>();
+    private static final CallSite UNKNOWN = new CallSite("unknown", "unknown", null, -1);
+
+    private static final Object WALKER;
+    private static final MethodHandle WALK;
+    private static final MethodHandle CLASS_NAME, METHOD_NAME, LINE_NUMBER, FILE_NAME;
+    private static final Function<Stream<?>, CallSite> FIND_CALLER = CallSite::findCaller;
+
+    static {
+        Object walker = null;
+        MethodHandle walk = null, className = null, methodName = null, line = null,
+                file = null;
+        try{
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            // walk() is caller sensitive, it needs a full lookup rather than publicLookup()
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = lookup.findVirtual(walkerClass, "walk",
+                    MethodType.methodType(Object.class, Function.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, Function.class));
+            className = frameGetter(lookup, frameClass, "getClassName", String.class);
+            methodName = frameGetter(lookup, frameClass, "getMethodName", String.class);
+            line = frameGetter(lookup, frameClass, "getLineNumber", int.class);
+            file = frameGetter(lookup, frameClass, "getFileName", String.class);
+        }
+        catch(ReflectiveOperationException | RuntimeException e){
+            // Java 8, use the Throwable fallback
+            walker = null;
+        }
+        WALKER = walker;
+        WALK = walk;
+        CLASS_NAME = className;
+        METHOD_NAME = methodName;
+        LINE_NUMBER = line;
+        FILE_NAME = file;
+    }
+
+    final String className;
+    final String methodName;
+    // May be null if the class was compiled without debug info
+    final String fileName;
+    final int lineNumber;
+    private final String compact;
+    private final String prefix;
+
+    private CallSite(String className, String methodName, String fileName, int lineNumber){
+        this.className = className;
+        this.methodName = methodName;
+        this.fileName = fileName;
+        this.lineNumber = lineNumber;
+        this.compact = className + "." + methodName + ":" + lineNumber;
+        this.prefix = "[" + compact + "] ";
+    }
+
+    /**
+     * @return The first frame above the javalibs logging classes, UNKNOWN if there is none
+     */
+    static CallSite caller(){
+        if(WALKER != null){
+            try{
+                Object site = WALK.invokeExact(WALKER, (Function<?, ?>)FIND_CALLER);
+                return (CallSite)site;
+            }
+            catch(Throwable t){
+                // Shouldn't happen, drop down to the slow path rather than lose the message
+            }
+        }
+        return fromStackTrace(new Throwable().getStackTrace());
+    }
+
+    /**
+     * The frames right above a given function, for reports that want the function that
+     * called it and where that one was called from
+     * @param className Class of the function to look for, its first frame is the start
+     * @param methodName Name of the function to look for
+     * @param count Number of frames to return
+     * @return The count frames above the function, closest first, UNKNOWN where the stack
+     * runs out
+     */
+    static CallSite[] above(String className, String methodName, int count){
+        CallSite[] sites = new CallSite[count];
+        Arrays.fill(sites, UNKNOWN);
+        if(WALKER != null){
+            try{
+                Function<Stream<?>, Object> find = frames -> {
+                    findAbove(frames.iterator(), className, methodName, sites);
+                    return null;
+                };
+                Object ignored = WALK.invokeExact(WALKER, (Function<?, ?>)find);
+                return sites;
+            }
+            catch(Throwable t){
+                // Shouldn't happen, drop down to the slow path
+                Arrays.fill(sites, UNKNOWN);
+            }
+        }
+        StackTraceElement[] frames = new Throwable().getStackTrace();
+        int i = 0;
+        while(i < frames.length && !(className.equals(frames[i].getClassName())
+                && methodName.equals(frames[i].getMethodName())))
+            ++i;
+        for(int j = 0; j < count && ++i < frames.length; ++j)
+            sites[j] = fromFrame(frames[i]);
+        return sites;
+    }
+
+    /**
+     * "package.Class.function:line"
+     */
+    @Override
+    public String toString(){
+        return compact;
+    }
+
+    /**
+     * "[package.Class.function:line] ", what the text format puts in front of the message
+     */
+    String prefix(){
+        return prefix;
+    }
+
+    private static MethodHandle frameGetter(MethodHandles.Lookup lookup, Class<?> frameClass,
+                                            String name, Class<?> type)
+            throws ReflectiveOperationException {
+        return lookup.findVirtual(frameClass, name, MethodType.methodType(type))
+                .asType(MethodType.methodType(type, Object.class));
+    }
+
+    private static CallSite findCaller(Stream<?> frames){
+        try{
+            Object frame = frames.filter(CallSite::isExternal).findFirst().orElse(null);
+            return frame == null ? UNKNOWN : fromWalkerFrame(frame);
+        }
+        catch(Throwable t){
+            return UNKNOWN;
+        }
+    }
+
+    private static void findAbove(Iterator<?> frames, String className, String methodName,
+                                  CallSite[] sites){
+        try{
+            while(frames.hasNext()){
+                Object frame = frames.next();
+                if(className.equals((String)CLASS_NAME.invokeExact(frame))
+                        && methodName.equals((String)METHOD_NAME.invokeExact(frame)))
+                    break;
+            }
+            for(int i = 0; i < sites.length && frames.hasNext(); ++i)
+                sites[i] = fromWalkerFrame(frames.next());
+        }
+        catch(Throwable t){
+            // Leave the rest UNKNOWN
+        }
+    }
+
+    private static CallSite fromWalkerFrame(Object frame) throws Throwable {
+        String className = (String)CLASS_NAME.invokeExact(frame);
+        String methodName = (String)METHOD_NAME.invokeExact(frame);
+        int line = (int)LINE_NUMBER.invokeExact(frame);
+        Key key = new Key(className, methodName, line);
+        CallSite site = CACHE.get(key);
+        if(site != null) return site;
+        return cache(key, new CallSite(className, methodName,
+                (String)FILE_NAME.invokeExact(frame), line));
+    }
+
+    private static boolean isExternal(Object frame){
+        try{
+            return !INTERNAL.contains((String)CLASS_NAME.invokeExact(frame));
+        }
+        catch(Throwable t){
+            return false;
+        }
+    }
+
+    private static CallSite fromStackTrace(StackTraceElement[] frames){
+        for(StackTraceElement frame : frames)
+            if(!INTERNAL.contains(frame.getClassName()))
+                return fromFrame(frame);
+        return UNKNOWN;
+    }
+
+    private static CallSite fromFrame(StackTraceElement frame){
+        CallSite site = CACHE.get(frame);
+        if(site != null) return site;
+        return cache(frame, new CallSite(frame.getClassName(), frame.getMethodName(),
+                frame.getFileName(), frame.getLineNumber()));
+    }
+
+    private static CallSite cache(Object key, CallSite site){
+        if(CACHE.size() >= MAX_CACHED) return site;
+        CallSite existing = CACHE.putIfAbsent(key, site);
+        return existing == null ? site : existing;
+    }
+
+    /**
+     * A StackWalker frame is identified by exactly what the CallSite shows, class, function
+     * name and line. The bytecode index is cheaper but isn't unique, overloads of the same
+     * function can log from the same index on different lines
+     */
+    private static final class Key {
+        private final String className;
+        private final String methodName;
+        private final int line;
+
+        Key(String className, String methodName, int line){
+            this.className = className;
+            this.methodName = methodName;
+            this.line = line;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o) return true;
+            if(!(o instanceof Key)) return false;
+            Key other = (Key)o;
+            return line == other.line && className.equals(other.className)
+                    && methodName.equals(other.methodName);
+        }
+
+        @Override
+        public int hashCode(){
+            return (className.hashCode() * 31 + methodName.hashCode()) * 31 + line;
+        }
+    }
+}
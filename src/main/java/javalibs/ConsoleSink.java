@@ -0,0 +1,59 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Console output for TSL, kept off the writer thread so a slow terminal or a stalled pipe
+ * on stdout doesn't slow down file logging. Lines are printed a batch at a time with one
+ * print and one flush.
+ *
+ * Stdout goes through Out, so with Out.BUFFERED_OUTPUT on the log lines land in the same
+ * buffer as everything printed with Out and come out in the order they were written.
+ */
+public class ConsoleSink extends AsyncSink {
+    // Null for stdout by way of Out
+    private final PrintStream target;
+    private final StringBuilder sb = new StringBuilder(8192);
+    private final String newline = System.lineSeparator();
+
+    /**
+     * Print to System.out, through Out
+     */
+    public ConsoleSink(int capacity, TSL.Overflow policy){
+        this(null, capacity, policy);
+    }
+
+    /**
+     * @param target Stream to print to, null for System.out through Out
+     */
+    public ConsoleSink(PrintStream target, int capacity, TSL.Overflow policy){
+        super("TSL-console", capacity, 512, policy);
+        this.target = target;
+        start();
+    }
+
+    @Override
+    protected void writeBatch(List<String> lines){
+        sb.setLength(0);
+        for(String line : lines)
+            sb.append(line).append(newline);
+        if(target == null){
+            Out out = Out.get();
+            out.write(sb);
+            out.flush();
+        }
+        else{
+            target.print(sb);
+            target.flush();
+        }
+        if(sb.capacity() > 1 << 20){
+            sb.setLength(0);
+            sb.trimToSize();
+        }
+    }
+}
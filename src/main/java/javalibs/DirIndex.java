@@ -0,0 +1,116 @@
+package javalibs;
+/*
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
+
+/**
+ * A cached FileWalker listing of a tree that can be brought up to date cheaply.
+ *
+ * Adding, removing or renaming an entry changes its directory's modification time, so
+ * refresh() only re-reads directories whose time has changed and reuses the old listing for
+ * the rest: one stat per directory instead of one per file. A directory modified within
+ * SETTLE_MILLIS of being listed is always re-read, on file systems with coarse timestamps a
+ * change right after the listing could otherwise leave the time where it was.
+ *
+ * The index tracks which files exist. Writing to a file doesn't touch its directory, so the
+ * attributes the filter saw aren't updated until something else in that directory changes.
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class DirIndex {
+    // Longer than the timestamp granularity of any common file system (FAT is 2s)
+    private static final long SETTLE_MILLIS = 2000;
+
+    private final Path root;
+    private final BiPredicate<Path, BasicFileAttributes> filter;
+    private final boolean parallel;
+    private volatile Map<Path, FileWalker.Listing> listings = Collections.emptyMap();
+    private volatile List<Path> files = Collections.emptyList();
+
+    /**
+     * Builds the index, walking the whole tree once
+     * @param rootDir Directory to index
+     * @param filter Which files to keep, see FileWalker.glob() / regex()
+     * @param parallel Walk on all cores
+     */
+    public DirIndex(String rootDir, BiPredicate<Path, BasicFileAttributes> filter,
+                    boolean parallel){
+        this.root = Paths.get(rootDir).toAbsolutePath();
+        this.filter = filter;
+        this.parallel = parallel;
+        refresh();
+    }
+
+    /**
+     * Bring the index up to date with the tree
+     * @return The number of directories that had to be re-read
+     */
+    public synchronized int refresh(){
+        Map<Path, FileWalker.Listing> previous = listings;
+        Map<Path, FileWalker.Listing> current = new ConcurrentHashMap<>();
+        AtomicInteger reread = new AtomicInteger();
+        this.files = FileWalker.walk(root, dir -> {
+            FileWalker.Listing listing = listing(dir, previous.get(dir), reread);
+            if(listing != null) current.put(dir, listing);
+            return listing;
+        }, parallel);
+        this.listings = current;
+        return reread.get();
+    }
+
+    /**
+     * @return The indexed files as of the last refresh, in no particular order
+     */
+    public List<Path> files(){
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * @return The indexed files as of the last refresh, as sorted absolute path strings
+     */
+    public List<String> sortedFiles(){
+        return FileWalker.sorted(files);
+    }
+
+    public int size(){
+        return files.size();
+    }
+
+    private FileWalker.Listing listing(Path dir, FileWalker.Listing cached,
+                                       AtomicInteger reread){
+        FileTime modified;
+        try{
+            // Read before listing, a change during the listing then shows up next time
+            modified = Files.getLastModifiedTime(dir, LinkOption.NOFOLLOW_LINKS);
+        }
+        catch(IOException e){
+            // Gone since its parent was listed
+            return null;
+        }
+        if(cached != null && cached.settled && modified.equals(cached.modified))
+            return cached;
+        reread.incrementAndGet();
+        long listedAt = System.currentTimeMillis();
+        FileWalker.Listing listing = FileWalker.listDir(dir, filter);
+        if(listing == null) return null;
+        listing.modified = modified;
+        listing.settled = listedAt - modified.to(TimeUnit.MILLISECONDS) > SETTLE_MILLIS;
+        return listing;
+    }
+}
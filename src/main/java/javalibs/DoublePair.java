@@ -0,0 +1,45 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * @author Sean Grimes, sean@seanpgrimes.com
+ * License: MIT License
+ */
+
+/**
+ * Pair<Double, Double> without the boxing. Doubles compare like Double.equals(), NaN
+ * equals NaN and 0.0 doesn't equal -0.0
+ */
+@SuppressWarnings("WeakerAccess")
+public class DoublePair {
+    private final double left;
+    private final double right;
+
+    public DoublePair(double leftSide, double rightSide){
+        this.left = leftSide;
+        this.right = rightSide;
+    }
+
+    public double left() { return this.left; }
+    public double right() { return this.right; }
+
+    public Pair<Double, Double> boxed() { return new Pair<>(left, right); }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof DoublePair)) return false;
+        DoublePair other = (DoublePair) o;
+        return Double.compare(left, other.left) == 0 &&
+               Double.compare(right, other.right) == 0;
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * Double.hashCode(left) + Double.hashCode(right);
+    }
+
+    @Override
+    public String toString(){
+        return "(" + left + ", " + right + ")";
+    }
+}
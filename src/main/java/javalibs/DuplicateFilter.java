@@ -0,0 +1,167 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2019 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free "have I printed this recently" check for MTOut. Messages are reduced to a 64 bit
+ * hash and kept in a fixed size open addressed table, each slot holding the hash, when the
+ * message was last let through, and how many copies have been held back since.
+ *
+ * A message is let through if it isn't in the table or its entry has expired, either after
+ * windowMillis or, with windowMillis == 0, after windowMessages other calls. Copies inside
+ * the window are only counted. When a message with held back copies is let through again,
+ * pushed out of the table, or summarize() is called, the Summary gets "text, count" so the
+ * caller can log a "repeated N times" line.
+ *
+ * NOTE: With no lock, two threads racing on the same new message can both be let through,
+ * and a slot taken over from another message can lose a count. Good enough for output
+ * cleanup, not for accounting.
+ */
+final class DuplicateFilter {
+    interface Summary {
+        void repeated(String text, long times);
+    }
+
+    // Slots looked at before giving up and taking over the oldest
+    private static final int MAX_PROBE = 16;
+
+    private final int mask;
+    private final AtomicLongArray hashes;
+    private final AtomicLongArray stamps;
+    private final AtomicLongArray held;
+    private final AtomicReferenceArray<String> texts;
+    private final long windowNanos;
+    private final long windowMessages;
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong heldTotal = new AtomicLong();
+    private final Summary summary;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     * @param windowMillis How long a message stays suppressed, 0 to count messages instead
+     * @param windowMessages How many calls a message stays suppressed for, if windowMillis
+     *                       is 0
+     * @param summary Told about held back copies, may be null
+     */
+    DuplicateFilter(int capacity, long windowMillis, long windowMessages, Summary summary){
+        int size = Integer.highestOneBit(Math.max(MAX_PROBE, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.hashes = new AtomicLongArray(size);
+        this.stamps = new AtomicLongArray(size);
+        this.held = new AtomicLongArray(size);
+        this.texts = new AtomicReferenceArray<>(size);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+        this.windowMessages = Math.max(1, windowMessages);
+        this.summary = summary;
+    }
+
+    /**
+     * @return True if msg should be printed, false if it's a recent duplicate
+     */
+    boolean admit(String msg){
+        return admit(hash(msg), msg);
+    }
+
+    boolean admit(long hash, String msg){
+        long now = windowNanos > 0 ? System.nanoTime() : messageCount.incrementAndGet();
+        int start = (int)(hash ^ (hash >>> 32)) & mask;
+        int victim = start;
+        long victimStamp = Long.MAX_VALUE;
+        for(int probe = 0; probe < MAX_PROBE; ++probe){
+            int i = (start + probe) & mask;
+            long slotHash = hashes.get(i);
+            if(slotHash == 0 && hashes.compareAndSet(i, 0, hash)){
+                claim(i, now, msg);
+                return true;
+            }
+            // Re-read, a racing thread may have just claimed the empty slot for this hash
+            slotHash = hashes.get(i);
+            long stamp = stamps.get(i);
+            if(slotHash == hash){
+                if(!expired(stamp, now)){
+                    held.incrementAndGet(i);
+                    heldTotal.incrementAndGet();
+                    return false;
+                }
+                // Only one thread gets to let the message through again
+                if(!stamps.compareAndSet(i, stamp, now))
+                    return false;
+                report(texts.get(i), held.getAndSet(i, 0));
+                texts.set(i, msg);
+                return true;
+            }
+            if(stamp < victimStamp){
+                victimStamp = stamp;
+                victim = i;
+            }
+        }
+        // Table is crowded around this hash, take over the least recently printed slot
+        long oldHash = hashes.get(victim);
+        if(!hashes.compareAndSet(victim, oldHash, hash))
+            return true;
+        String oldText = texts.get(victim);
+        long oldHeld = held.getAndSet(victim, 0);
+        claim(victim, now, msg);
+        report(oldText, oldHeld);
+        return true;
+    }
+
+    /**
+     * Report every message that has held back copies and reset the counts
+     */
+    void summarize(){
+        for(int i = 0; i <= mask; ++i){
+            long count = held.get(i);
+            if(count > 0 && held.compareAndSet(i, count, 0))
+                report(texts.get(i), count);
+        }
+    }
+
+    /**
+     * @return Copies held back since the filter was created
+     */
+    long heldCount(){
+        return heldTotal.get();
+    }
+
+    /**
+     * 64 bit FNV-1a over the chars with a final avalanche, no allocation
+     */
+    static long hash(CharSequence s){
+        long h = 0xcbf29ce484222325L;
+        for(int i = 0, n = s.length(); i < n; ++i){
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        // 0 marks an empty slot
+        return h == 0 ? 1 : h;
+    }
+
+    private void claim(int i, long now, String msg){
+        stamps.set(i, now);
+        held.set(i, 0);
+        texts.set(i, msg);
+    }
+
+    private boolean expired(long stamp, long now){
+        if(windowNanos > 0) return now - stamp >= windowNanos;
+        return now - stamp >= windowMessages;
+    }
+
+    private void report(String text, long count){
+        if(count > 0 && text != null && summary != null)
+            summary.repeated(text, count);
+    }
+}
@@ -9,9 +9,15 @@ import org.apache.commons.compress.compressors.CompressorInputStream;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * @author Sean Grimes, sean@seanpgrimes.com
@@ -19,6 +25,12 @@ import java.util.*;
  */
 @SuppressWarnings({"WeakerAccess", "SpellCheckingInspection", "unused"})
 public class FileUtils{
+    // Big enough that a compressed stream is decoded in large blocks
+    private static final int LINE_READ_BUFFER = 1 << 16;
+    // Largest single transferTo(), well under the 2GB some platforms cap it at
+    private static final long TRANSFER_CHUNK = 1L << 30;
+    // Compression formats openLineReader() picks by file extension
+    private static final Map<String, String> COMPRESSED_EXTENSIONS = compressedExtensions();
     private static volatile FileUtils _instance;
     private final TSL log = TSL.get();
 
@@ -72,25 +84,36 @@ public class FileUtils{
 
         // Create the directory (and parents, if necessary)
         File tmp = new File(dirName);
-        log.trace("Creating directory: " + tmp.toString());
+        log.trace("Creating directory: %s", tmp);
         if(!tmp.mkdirs())
             log.err("Failed to create directory path: " + dirName);
     }
 
     /**
-     * Get the number of lines in a file
+     * Get the number of lines in a file, the same number readLine() would give. Counts raw
+     * bytes from a memory mapped file, nothing is decoded, so the file needs to be UTF-8 or
+     * another ASCII compatible charset
      * @param filePath the path to the file
      * @return number of lines, -1 if error
      */
     public long lineCount(String filePath){
-        long lines = 0;
-        try(BufferedReader br = Files.newBufferedReader(Paths.get(filePath))) {
-            while (br.readLine() != null) ++lines;
+        return lineCount(filePath, false);
+    }
+
+    /**
+     * Get the number of lines in a file
+     * @param filePath the path to the file
+     * @param parallel Split the file into ranges and count them on all cores, worth it for
+     *                 files in the GB range
+     * @return number of lines, -1 if error
+     */
+    public long lineCount(String filePath, boolean parallel){
+        try{
+            return LineCounter.count(Paths.get(filePath), parallel);
         }
         catch(IOException e){
             return -1;
         }
-        return lines;
     }
 
     /**
@@ -99,8 +122,12 @@ public class FileUtils{
      * @return The file, as a string, if it's found and read successfully
      */
     public String readFullFile(String filePath) {
-        try(BufferedReader br = Files.newBufferedReader(Paths.get(filePath))){
-            StringBuilder sb = new StringBuilder();
+        Path path = Paths.get(filePath);
+        try(BufferedReader br = Files.newBufferedReader(path)){
+            // Sized from the file so the builder doesn't have to regrow
+            long chars = estimateChars(path);
+            StringBuilder sb = new StringBuilder(
+                    (int)Math.min(chars + (chars >> 6) + 16, Integer.MAX_VALUE - 8));
             String line = br.readLine();
             while(line != null){
                 sb.append(line);
@@ -115,10 +142,30 @@ public class FileUtils{
         }
     }
 
+    /**
+     * Chars a UTF-8 file decodes to, estimated from its first 8KB. The byte count alone
+     * is several times too big for text that's mostly multi byte characters
+     */
+    private static long estimateChars(Path path) throws IOException {
+        long size = Files.size(path);
+        byte[] head = new byte[(int)Math.min(size, 8192)];
+        int read;
+        try(InputStream in = Files.newInputStream(path)){
+            read = in.read(head);
+        }
+        if(read <= 0) return size;
+        // Every byte but a continuation byte (10xxxxxx) starts a char
+        int starts = 0;
+        for(int i = 0; i < read; ++i)
+            if((head[i] & 0xC0) != 0x80) ++starts;
+        return size * starts / read;
+    }
+
     /**
      * Read a file line by line
      * @param filePath The path to the file
      * @return A list of lines of the file (as strings) if file is found and readable
+     * @see #lines(String) for files too big to hold in memory
      */
     public List<String> readLineByLine(String filePath) {
         List<String> lines = new ArrayList<>();
@@ -136,6 +183,232 @@ public class FileUtils{
         return lines;
     }
 
+    /*
+     * lines() / lineIterator() / forEachLine() / forEachLineChunk() read the file lazily, only
+     * the current line (or chunk) is ever in memory, so they work on files that don't fit in
+     * the heap, unlike readFullFile() / readLineByLine(). Compressed files are decompressed
+     * on the fly, the format is picked from the extension (.gz, .bz2, .xz, .zst, ...). Only a
+     * file without an extension has its first bytes checked for a compression signature.
+     * Text is read as UTF-8.
+     */
+
+    /**
+     * Lazily read a file's lines. The stream holds the file open, close it:
+     *      try(Stream<String> lines = FileUtils.get().lines(path)){ ... }
+     * @param filePath The path to the file, compressed or not
+     * @return The lines, read as the stream is consumed
+     * @throws UncheckedIOException If the file can't be opened, or later on if it can't be
+     * read
+     */
+    public Stream<String> lines(String filePath){
+        BufferedReader br = openLineReader(filePath);
+        return br.lines().onClose(() -> {
+            try{
+                br.close();
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Lazily read a file's lines. The file is closed once the last line has been read, or by
+     * close() if the iteration stops early:
+     *      try(FileUtils.LineIterator it = FileUtils.get().lineIterator(path)){ ... }
+     * @param filePath The path to the file, compressed or not
+     * @throws UncheckedIOException If the file can't be opened
+     */
+    public LineIterator lineIterator(String filePath){
+        return new LineIterator(openLineReader(filePath));
+    }
+
+    /**
+     * Run action on each line of a file, in order
+     * @param filePath The path to the file, compressed or not
+     * @param action Called once per line
+     * @return The number of lines read
+     * @throws UncheckedIOException If the file can't be read
+     */
+    public long forEachLine(String filePath, Consumer<String> action){
+        long lines = 0;
+        try(BufferedReader br = openLineReader(filePath)){
+            String line;
+            while((line = br.readLine()) != null){
+                action.accept(line);
+                ++lines;
+            }
+        }
+        catch(IOException e){
+            log.exception(e);
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    /**
+     * Run action on the lines of a file a chunk at a time, for work that's cheaper in
+     * batches (database inserts, handing off to other threads). Every chunk is a new list
+     * the action can keep
+     * @param filePath The path to the file, compressed or not
+     * @param chunkSize Lines per chunk, the last chunk may be smaller
+     * @param action Called once per chunk
+     * @return The number of lines read
+     * @throws UncheckedIOException If the file can't be read
+     */
+    public long forEachLineChunk(String filePath, int chunkSize,
+                                 Consumer<List<String>> action){
+        if(chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be at least 1: " + chunkSize);
+        long lines = 0;
+        try(BufferedReader br = openLineReader(filePath)){
+            List<String> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while((line = br.readLine()) != null){
+                chunk.add(line);
+                ++lines;
+                if(chunk.size() == chunkSize){
+                    action.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if(!chunk.isEmpty()) action.accept(chunk);
+        }
+        catch(IOException e){
+            log.exception(e);
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    /**
+     * Process the lines of a big plain text file in parallel on the common ForkJoinPool:
+     *      FileUtils.get().parallelLines(path).forEach(line -> ...);
+     * See ParallelLineProcessor, construct one directly to pick the pool and chunk size
+     * @param filePath The path to the file, not compressed
+     */
+    public ParallelLineProcessor parallelLines(String filePath){
+        return new ParallelLineProcessor(filePath);
+    }
+
+    /**
+     * Open a file for reading lines, decompressing it if it's compressed
+     * @throws UncheckedIOException If it can't be opened
+     */
+    private BufferedReader openLineReader(String filePath){
+        InputStream in = null;
+        try{
+            in = new BufferedInputStream(Files.newInputStream(Paths.get(filePath)),
+                    LINE_READ_BUFFER);
+            String format = compressionFormat(filePath, in);
+            if(format != null)
+                in = new CompressorStreamFactory().createCompressorInputStream(format, in);
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),
+                    LINE_READ_BUFFER);
+        }
+        catch(IOException | CompressorException e){
+            if(in != null){
+                try{
+                    in.close();
+                }
+                catch(IOException suppressed){
+                    e.addSuppressed(suppressed);
+                }
+            }
+            log.exception(e);
+            throw e instanceof IOException
+                    ? new UncheckedIOException((IOException)e)
+                    : new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    /**
+     * @return The compression format for a file, from its extension if it has one, else
+     * from its first bytes. Null for plain text
+     */
+    private static String compressionFormat(String filePath, InputStream in){
+        String name = Paths.get(filePath).getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        // A leading dot is a hidden file, not an extension
+        if(dot > 0)
+            return COMPRESSED_EXTENSIONS.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        try{
+            String format = CompressorStreamFactory.detect(in);
+            // A zlib header is just two bytes, plain text can start with one ("x^...")
+            return CompressorStreamFactory.DEFLATE.equals(format) ? null : format;
+        }
+        catch(CompressorException e){
+            // No known compression signature, plain text
+            return null;
+        }
+    }
+
+    private static Map<String, String> compressedExtensions(){
+        Map<String, String> formats = new HashMap<>();
+        formats.put("gz", CompressorStreamFactory.GZIP);
+        formats.put("gzip", CompressorStreamFactory.GZIP);
+        formats.put("bz2", CompressorStreamFactory.BZIP2);
+        formats.put("xz", CompressorStreamFactory.XZ);
+        formats.put("lzma", CompressorStreamFactory.LZMA);
+        formats.put("z", CompressorStreamFactory.Z);
+        formats.put("zst", CompressorStreamFactory.ZSTANDARD);
+        formats.put("sz", CompressorStreamFactory.SNAPPY_FRAMED);
+        formats.put("lz4", CompressorStreamFactory.LZ4_FRAMED);
+        formats.put("br", CompressorStreamFactory.BROTLI);
+        formats.put("deflate", CompressorStreamFactory.DEFLATE);
+        return formats;
+    }
+
+    /**
+     * Lines of a file, read one at a time. See lineIterator()
+     */
+    public static final class LineIterator implements Iterator<String>, Closeable {
+        private final BufferedReader reader;
+        private String next;
+        private boolean closed;
+
+        private LineIterator(BufferedReader reader){
+            this.reader = reader;
+        }
+
+        /**
+         * @throws UncheckedIOException If the file can't be read
+         */
+        @Override
+        public boolean hasNext(){
+            if(next != null) return true;
+            if(closed) return false;
+            try{
+                next = reader.readLine();
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+            if(next == null) close();
+            return next != null;
+        }
+
+        @Override
+        public String next(){
+            if(!hasNext()) throw new NoSuchElementException();
+            String line = next;
+            next = null;
+            return line;
+        }
+
+        @Override
+        public void close(){
+            if(closed) return;
+            closed = true;
+            try{
+                reader.close();
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     /**
      * Returns a list of absolute file paths to files in a directory that start with the
      * supplied prefix
@@ -173,6 +446,28 @@ public class FileUtils{
         return sortedFilePaths(filepaths);
     }
 
+    /**
+     * Returns the absolute paths of every file under a directory, recursively, whose name
+     * matches a glob. See FileWalker for regex and attribute filters or a lazy stream
+     * @param path The path to the directory
+     * @param glob A pattern like "*.csv", see FileWalker.glob()
+     * @param parallel Walk the tree on all cores
+     * @return The sorted list of absolute paths, empty list if nothing matches
+     */
+    public List<String> findFiles(String path, String glob, boolean parallel){
+        return FileWalker.sortedList(Paths.get(path), FileWalker.glob(glob), parallel);
+    }
+
+    /**
+     * Lazily walk every file under a directory, recursively
+     * @param path The path to the directory
+     * @param filter Given each file's path and attributes, see FileWalker.glob() / regex()
+     * @return The absolute paths of the files that pass filter
+     */
+    public Stream<Path> walkFiles(String path, BiPredicate<Path, BasicFileAttributes> filter){
+        return FileWalker.stream(Paths.get(path), filter, false);
+    }
+
     private List<String> sortedFilePaths(List<String> paths){
         if(paths.isEmpty()) return Collections.emptyList();
         paths.sort(Comparator.naturalOrder());
@@ -276,6 +571,160 @@ public class FileUtils{
         return true;
     }
 
+    /*
+     * copy() / concat() / appendFile() move bytes between files with FileChannel.transferTo,
+     * which the OS can do without copying through the JVM (sendfile on Linux), so nothing
+     * lands on the heap however big the files are. With fsync the destination is forced to
+     * disk before returning.
+     */
+
+    /**
+     * Copy a file byte for byte. Will overwrite an existing dest
+     * @param src Path to the file to copy
+     * @param dest Path to the copy
+     * @return True if copied successfully, else false
+     */
+    public boolean copy(String src, String dest){
+        return copy(src, dest, false);
+    }
+
+    /**
+     * Copy a file byte for byte. Will overwrite an existing dest
+     * @param src Path to the file to copy
+     * @param dest Path to the copy
+     * @param fsync Force the copy to disk before returning
+     * @return True if copied successfully, else false
+     */
+    public boolean copy(String src, String dest, boolean fsync){
+        return concat(Collections.singletonList(src), dest, fsync);
+    }
+
+    /**
+     * Join files into one, e.g. the part files of a parallel job. Will overwrite an
+     * existing dest
+     * @param srcs Paths to the files, in the order they go in dest
+     * @param dest Path to the joined file, can't be one of srcs
+     * @return True if joined successfully, else false
+     */
+    public boolean concat(List<String> srcs, String dest){
+        return concat(srcs, dest, false);
+    }
+
+    /**
+     * Join files into one, e.g. the part files of a parallel job. Will overwrite an
+     * existing dest
+     * @param srcs Paths to the files, in the order they go in dest
+     * @param dest Path to the joined file, can't be one of srcs
+     * @param fsync Force dest to disk before returning
+     * @return True if joined successfully, else false
+     */
+    public boolean concat(List<String> srcs, String dest, boolean fsync){
+        Path destPath = Paths.get(dest);
+        try{
+            // Every check happens before dest is truncated, a bad path mustn't wipe it out
+            boolean destExists = Files.exists(destPath);
+            for(String src : srcs){
+                Path srcPath = Paths.get(src);
+                if(!Files.isRegularFile(srcPath) || !Files.isReadable(srcPath)){
+                    log.err("FileUtils.concat() -- Can't read source: " + src);
+                    return false;
+                }
+                // Truncating dest would wipe out the source before it's read
+                if(destExists && Files.isSameFile(srcPath, destPath)){
+                    log.err("FileUtils.concat() -- dest is also a source: " + dest);
+                    return false;
+                }
+            }
+            try(FileChannel out = FileChannel.open(destPath, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+                for(String src : srcs)
+                    transferAll(Paths.get(src), out);
+                if(fsync) out.force(true);
+            }
+        }
+        catch(IOException e){
+            log.exception(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Append one file to the end of another, byte for byte
+     * @param src Path to the file to append
+     * @param dest Path to the file appended to, created if it doesn't exist
+     * @return True if appended successfully, else false
+     */
+    public boolean appendFile(String src, String dest){
+        return appendFile(src, dest, false);
+    }
+
+    /**
+     * Append one file to the end of another, byte for byte
+     * @param src Path to the file to append
+     * @param dest Path to the file appended to, created if it doesn't exist
+     * @param fsync Force dest to disk before returning
+     * @return True if appended successfully, else false
+     */
+    public boolean appendFile(String src, String dest, boolean fsync){
+        Path destPath = Paths.get(dest);
+        try{
+            if(Files.exists(destPath) && Files.isSameFile(Paths.get(src), destPath)){
+                log.err("FileUtils.appendFile() -- Can't append a file to itself: " + dest);
+                return false;
+            }
+            try(FileChannel out = FileChannel.open(destPath, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)){
+                transferAll(Paths.get(src), out);
+                if(fsync) out.force(true);
+            }
+        }
+        catch(IOException e){
+            log.exception(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move a file, replacing an existing dest. A rename when both are on the same file
+     * system, a copy and delete otherwise
+     * @param src Path to the file to move
+     * @param dest Where it goes
+     * @return True if moved successfully, else false
+     */
+    public boolean move(String src, String dest){
+        try{
+            Files.move(Paths.get(src), Paths.get(dest), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException e){
+            log.exception(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Write all of src at out's position. transferTo can move less than asked for, and at
+     * most 2GB at a time on some platforms, so it goes in TRANSFER_CHUNK pieces until done
+     */
+    private void transferAll(Path src, FileChannel out) throws IOException {
+        try(FileChannel in = FileChannel.open(src, StandardOpenOption.READ)){
+            long size = in.size();
+            long pos = 0;
+            while(pos < size){
+                long moved = in.transferTo(pos, Math.min(TRANSFER_CHUNK, size - pos), out);
+                if(moved <= 0){
+                    // src shrank under us, stop at what's there
+                    if(pos >= in.size()) break;
+                    throw new IOException("FileUtils -- transferTo() stopped moving bytes at " +
+                            pos + " of " + size + " copying " + src);
+                }
+                pos += moved;
+            }
+        }
+    }
+
     /**
      * Split a string on a character
      * @param str The string to split
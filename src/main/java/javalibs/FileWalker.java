@@ -0,0 +1,247 @@
+package javalibs;
+/*
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Recursive file listing for big trees. Each directory is read once with a DirectoryStream
+ * and each entry's attributes are read once, then handed to the filter along with the path,
+ * so a filter on size or modification time costs nothing extra.
+ *
+ * Sequential walks are lazy, a directory is only listed when the stream gets to it. Parallel
+ * walks give every directory its own task on the common ForkJoinPool and collect the
+ * matches. Either way only regular files are returned, as absolute paths. Links to files
+ * are followed, links to directories aren't (a link back up the tree would never end), and
+ * directories that can't be read are logged and skipped.
+ *
+ *      List<String> csvs = FileWalker.sortedList(Paths.get("data"),
+ *              FileWalker.glob("*.csv"), true);
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public final class FileWalker {
+    private static final TSL log = TSL.get();
+
+    private FileWalker(){ }
+
+    /**
+     * @return A filter that takes every file
+     */
+    public static BiPredicate<Path, BasicFileAttributes> all(){
+        return (path, attrs) -> true;
+    }
+
+    /**
+     * @param pattern A glob like "*.csv" or "/data/2019-??/**.csv". Patterns without a '/'
+     *                are matched against the file name, others against the absolute path
+     */
+    public static BiPredicate<Path, BasicFileAttributes> glob(String pattern){
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        if(pattern.indexOf('/') >= 0)
+            return (path, attrs) -> matcher.matches(path);
+        return (path, attrs) -> matcher.matches(path.getFileName());
+    }
+
+    /**
+     * @param regex Has to match the whole file name
+     */
+    public static BiPredicate<Path, BasicFileAttributes> regex(String regex){
+        Pattern pattern = Pattern.compile(regex);
+        return (path, attrs) -> pattern.matcher(path.getFileName().toString()).matches();
+    }
+
+    /**
+     * Every file under root that passes filter
+     * @param root Directory to walk
+     * @param filter Given each file's path and attributes
+     * @param parallel List directories on all cores, the stream is built once the walk is
+     *                 done. Otherwise the walk is lazy and happens as the stream is consumed
+     */
+    public static Stream<Path> stream(Path root, BiPredicate<Path, BasicFileAttributes> filter,
+                                      boolean parallel){
+        if(parallel) return list(root, filter, true).stream();
+        return lazyWalk(root, dir -> listDir(dir, filter));
+    }
+
+    /**
+     * Every file under root that passes filter, in no particular order
+     */
+    public static List<Path> list(Path root, BiPredicate<Path, BasicFileAttributes> filter,
+                                  boolean parallel){
+        return walk(root, dir -> listDir(dir, filter), parallel);
+    }
+
+    /**
+     * Every file under root that passes filter, as sorted absolute path strings
+     */
+    public static List<String> sortedList(Path root,
+                                          BiPredicate<Path, BasicFileAttributes> filter,
+                                          boolean parallel){
+        return sorted(list(root, filter, parallel));
+    }
+
+    static List<String> sorted(List<Path> paths){
+        List<String> sorted = paths.stream().map(Path::toString).collect(Collectors.toList());
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Walk the tree from root, getting each directory's contents from lister, which
+     * returns null for a directory to skip
+     */
+    static List<Path> walk(Path root, Function<Path, Listing> lister, boolean parallel){
+        Path start = root.toAbsolutePath();
+        if(!parallel){
+            List<Path> files = new ArrayList<>();
+            lazyWalk(start, lister).forEach(files::add);
+            return files;
+        }
+        ConcurrentLinkedQueue<Path> found = new ConcurrentLinkedQueue<>();
+        ForkJoinPool.commonPool().invoke(new WalkTask(start, lister, found));
+        return new ArrayList<>(found);
+    }
+
+    private static Stream<Path> lazyWalk(Path root, Function<Path, Listing> lister){
+        Iterator<Path> files = new LazyWalk(root.toAbsolutePath(), lister);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(files,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Read a directory: its subdirectories, and the files in it that pass filter
+     * @return The listing, null if the directory can't be read
+     */
+    static Listing listDir(Path dir, BiPredicate<Path, BasicFileAttributes> filter){
+        Listing listing = new Listing();
+        try(DirectoryStream<Path> entries = Files.newDirectoryStream(dir)){
+            for(Path entry : entries){
+                BasicFileAttributes attrs;
+                try{
+                    attrs = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    if(attrs.isSymbolicLink()){
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                        if(attrs.isDirectory()) continue;
+                    }
+                }
+                catch(IOException e){
+                    // Deleted since the directory was read, or a dangling link
+                    continue;
+                }
+                if(attrs.isDirectory())
+                    listing.dirs.add(entry);
+                else if(attrs.isRegularFile() && filter.test(entry, attrs))
+                    listing.files.add(entry);
+            }
+        }
+        catch(IOException | DirectoryIteratorException e){
+            log.warn("FileWalker -- Skipping unreadable directory %s: %s", dir, e);
+            return null;
+        }
+        return listing;
+    }
+
+    /**
+     * What's in one directory. Not changed once it's been listed
+     */
+    static final class Listing {
+        final List<Path> files = new ArrayList<>();
+        final List<Path> dirs = new ArrayList<>();
+        // Only set by DirIndex
+        FileTime modified;
+        boolean settled;
+    }
+
+    /**
+     * One task per directory, subdirectories are forked as tasks of their own
+     */
+    private static final class WalkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final Function<Path, Listing> lister;
+        private final ConcurrentLinkedQueue<Path> found;
+
+        WalkTask(Path dir, Function<Path, Listing> lister, ConcurrentLinkedQueue<Path> found){
+            this.dir = dir;
+            this.lister = lister;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute(){
+            Listing listing = lister.apply(dir);
+            if(listing == null) return;
+            found.addAll(listing.files);
+            if(listing.dirs.isEmpty()) return;
+            List<WalkTask> subdirs = new ArrayList<>(listing.dirs.size());
+            for(Path sub : listing.dirs)
+                subdirs.add(new WalkTask(sub, lister, found));
+            invokeAll(subdirs);
+        }
+    }
+
+    /**
+     * Depth first, lists the next directory only when the files so far have been used up
+     */
+    private static final class LazyWalk implements Iterator<Path> {
+        private final Function<Path, Listing> lister;
+        private final Deque<Path> pending = new ArrayDeque<>();
+        private Iterator<Path> current = Collections.emptyIterator();
+
+        LazyWalk(Path root, Function<Path, Listing> lister){
+            this.lister = lister;
+            this.pending.push(root);
+        }
+
+        @Override
+        public boolean hasNext(){
+            while(!current.hasNext()){
+                Path dir = pending.poll();
+                if(dir == null) return false;
+                Listing listing = lister.apply(dir);
+                if(listing == null) continue;
+                // Pushed in reverse so they come off in the order they were listed
+                for(int i = listing.dirs.size() - 1; i >= 0; --i)
+                    pending.push(listing.dirs.get(i));
+                current = listing.files.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Path next(){
+            if(!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
+    }
+}
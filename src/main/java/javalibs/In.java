@@ -2,19 +2,40 @@ package javalibs;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
 
 /**
+ * Reads from stdin in one of two modes, pick one per program since both read ahead:
+ *
+ * Interactive -- readStr() / readInt() / readDouble() read a line at a time and keep asking
+ * until the input is valid.
+ *
+ * Token -- nextInt() / nextLong() / nextDouble() / next() / readIntArray() treat stdin as
+ * whitespace separated tokens. Input is read in 64KB chunks and numbers are parsed straight
+ * from the bytes, no Strings, no reprompting. Bad input throws NumberFormatException, the
+ * end of input throws NoSuchElementException. Meant for piping in millions of numbers.
+ *
  * @author Sean Grimes, sean@seanpgrimes.com
  * @since 6/6/15
  */
 @SuppressWarnings("unused")
 public class In{
+    private static final int CHUNK_SIZE = 1 << 16;
     private static volatile In _instance;
     private Out out = Out.get();
     private TSL log = TSL.get();
-    private BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+    // Only one of these is ever created, whichever mode is used first
+    private BufferedReader reader;
+    private InputStream stream;
+    private byte[] chunk;
+    private int chunkPos, chunkLen;
+    // The current token, copied out of the chunk so it can span two reads
+    private byte[] token = new byte[64];
+    private int tokenLen;
 
 
     private In(){ }
@@ -32,6 +53,7 @@ public class In{
 
     public String readStr(){
         String line = "-1";
+        BufferedReader reader = lineReader();
         try{
             line = reader.readLine();
             while(line == null || line.isEmpty()){
@@ -53,6 +75,7 @@ public class In{
 
     public int readInt(){
         String line = "-1";
+        BufferedReader reader = lineReader();
         try{
             line = reader.readLine();
             while(line == null || line.isEmpty() || (!Validation.Int(line))){
@@ -74,6 +97,7 @@ return Integer.parseInt(line);
 
     public double readDouble(){
         String line = "-1";
+        BufferedReader reader = lineReader();
         try{
             line = reader.readLine();
             while(line == null || line.isEmpty() || (!Validation.Double(line))){
@@ -108,4 +132,235 @@ return Double.parseDouble(line);
         }
         return num;
     }
+
+    /**
+     * Token mode: parse the next token as an int
+     * @throws NumberFormatException If the token isn't an int
+     * @throws NoSuchElementException If there are no tokens left
+     */
+    public synchronized int nextInt(){
+        long value = parseLongToken("nextInt");
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw badToken("nextInt", "int");
+        return (int)value;
+    }
+
+    /**
+     * Token mode: parse the next token as a long
+     * @throws NumberFormatException If the token isn't a long
+     * @throws NoSuchElementException If there are no tokens left
+     */
+    public synchronized long nextLong(){
+        return parseLongToken("nextLong");
+    }
+
+    /**
+     * Token mode: parse the next token as a double, anything Double.parseDouble takes is
+     * accepted. Plain decimals up to 15 - 16 significant digits are parsed from the bytes,
+     * anything else (hex, NaN, lots of digits, huge exponents) falls back to parseDouble
+     * @throws NumberFormatException If the token isn't a double
+     * @throws NoSuchElementException If there are no tokens left
+     */
+    public synchronized double nextDouble(){
+        if(!readToken()) throw new NoSuchElementException("In.nextDouble() -- End of input");
+        int i = 0;
+        boolean negative = false;
+        if(token[0] == '-' || token[0] == '+'){
+            negative = token[0] == '-';
+            ++i;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean sawDigit = false;
+        for(; i < tokenLen && isDigit(token[i]); ++i){
+            sawDigit = true;
+            if(mantissa == 0 && token[i] == '0') continue;
+            if(++digits > 18) return slowDouble();
+            mantissa = mantissa * 10 + (token[i] - '0');
+        }
+        if(i < tokenLen && token[i] == '.'){
+            for(++i; i < tokenLen && isDigit(token[i]); ++i){
+                sawDigit = true;
+                --exp10;
+                if(mantissa == 0 && token[i] == '0') continue;
+                if(++digits > 18) return slowDouble();
+                mantissa = mantissa * 10 + (token[i] - '0');
+            }
+        }
+        if(!sawDigit) return slowDouble();
+        if(i < tokenLen && (token[i] == 'e' || token[i] == 'E')){
+            ++i;
+            boolean negativeExp = false;
+            if(i < tokenLen && (token[i] == '-' || token[i] == '+')){
+                negativeExp = token[i] == '-';
+                ++i;
+            }
+            if(i == tokenLen) return slowDouble();
+            int exp = 0;
+            for(; i < tokenLen && isDigit(token[i]); ++i){
+                if(exp > 100000) return slowDouble();
+                exp = exp * 10 + (token[i] - '0');
+            }
+            exp10 += negativeExp ? -exp : exp;
+        }
+        // Trailing d / f suffixes and anything unexpected go the slow way
+        if(i != tokenLen) return slowDouble();
+        double value = NumUtils.fastPathDouble(mantissa, exp10, negative);
+        return Double.isNaN(value) ? slowDouble() : value;
+    }
+
+    /**
+     * Token mode: the next token as a String
+     * @throws NoSuchElementException If there are no tokens left
+     */
+    public synchronized String next(){
+        if(!readToken()) throw new NoSuchElementException("In.next() -- End of input");
+        return new String(token, 0, tokenLen, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Token mode: read n ints
+     * @throws NumberFormatException If one of the tokens isn't an int
+     * @throws NoSuchElementException If the input ends before n ints were read
+     */
+    public synchronized int[] readIntArray(int n){
+        int[] values = new int[n];
+        for(int i = 0; i < n; ++i)
+            values[i] = nextInt();
+        return values;
+    }
+
+    /**
+     * Token mode: read n longs
+     */
+    public synchronized long[] readLongArray(int n){
+        long[] values = new long[n];
+        for(int i = 0; i < n; ++i)
+            values[i] = nextLong();
+        return values;
+    }
+
+    /**
+     * Token mode: read n doubles
+     */
+    public synchronized double[] readDoubleArray(int n){
+        double[] values = new double[n];
+        for(int i = 0; i < n; ++i)
+            values[i] = nextDouble();
+        return values;
+    }
+
+    /**
+     * Token mode: true if there's another token before the end of input
+     */
+    public synchronized boolean hasNext(){
+        return skipWhitespace();
+    }
+
+    private BufferedReader lineReader(){
+        synchronized(this){
+            if(stream != null)
+                throw new IllegalStateException("In -- stdin is already in token mode, " +
+                        "use next* instead of read*");
+            if(reader == null)
+                reader = new BufferedReader(new InputStreamReader(System.in));
+            return reader;
+        }
+    }
+
+    private long parseLongToken(String caller){
+        if(!readToken())
+            throw new NoSuchElementException("In." + caller + "() -- End of input");
+        int i = 0;
+        boolean negative = false;
+        if(token[0] == '-' || token[0] == '+'){
+            negative = token[0] == '-';
+            ++i;
+        }
+        if(i == tokenLen) throw badToken(caller, "number");
+        // Accumulate negative, the negative range is one bigger
+        long value = 0;
+        for(; i < tokenLen; ++i){
+            byte b = token[i];
+            if(!isDigit(b)) throw badToken(caller, "number");
+            if(value < Long.MIN_VALUE / 10) throw badToken(caller, "long");
+            value *= 10;
+            int digit = b - '0';
+            if(value < Long.MIN_VALUE + digit) throw badToken(caller, "long");
+            value -= digit;
+        }
+        if(negative) return value;
+        if(value == Long.MIN_VALUE) throw badToken(caller, "long");
+        return -value;
+    }
+
+    private double slowDouble(){
+        return Double.parseDouble(new String(token, 0, tokenLen, StandardCharsets.UTF_8));
+    }
+
+    private NumberFormatException badToken(String caller, String type){
+        return new NumberFormatException("In." + caller + "() -- Not a valid " + type + ": " +
+                new String(token, 0, tokenLen, StandardCharsets.UTF_8));
+    }
+
+    private static boolean isDigit(byte b){
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Copy the next whitespace separated token into token / tokenLen
+     * @return False at the end of input
+     */
+    private boolean readToken(){
+        if(!skipWhitespace()) return false;
+        tokenLen = 0;
+        while(true){
+            if(chunkPos == chunkLen && !fill()) return true;
+            byte b = chunk[chunkPos];
+            // Masked, UTF-8 bytes past 0x7F are negative and aren't whitespace
+            if((b & 0xFF) <= ' ') return true;
+            if(tokenLen == token.length){
+                byte[] bigger = new byte[token.length * 2];
+                System.arraycopy(token, 0, bigger, 0, tokenLen);
+                token = bigger;
+            }
+            token[tokenLen++] = b;
+            ++chunkPos;
+        }
+    }
+
+    /**
+     * @return False if only whitespace is left
+     */
+    private boolean skipWhitespace(){
+        if(stream == null){
+            if(reader != null)
+                throw new IllegalStateException("In -- stdin is already in interactive " +
+                        "mode, use read* instead of next*");
+            stream = System.in;
+            chunk = new byte[CHUNK_SIZE];
+        }
+        while(true){
+            if(chunkPos == chunkLen && !fill()) return false;
+            if((chunk[chunkPos] & 0xFF) > ' ') return true;
+            ++chunkPos;
+        }
+    }
+
+    private boolean fill(){
+        try{
+            int n;
+            do{
+                n = stream.read(chunk, 0, chunk.length);
+            } while(n == 0);
+            chunkPos = 0;
+            chunkLen = Math.max(n, 0);
+            return n > 0;
+        }
+        catch(IOException e){
+            log.exception(e);
+            throw new UncheckedIOException(e);
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * @author Sean Grimes, sean@seanpgrimes.com
+ * License: MIT License
+ */
+
+/**
+ * Pair<Integer, Double> without the boxing. Doubles compare like Double.equals(), NaN
+ * equals NaN and 0.0 doesn't equal -0.0
+ */
+@SuppressWarnings("WeakerAccess")
+public class IntDoublePair {
+    private final int left;
+    private final double right;
+
+    public IntDoublePair(int leftSide, double rightSide){
+        this.left = leftSide;
+        this.right = rightSide;
+    }
+
+    public int left() { return this.left; }
+    public double right() { return this.right; }
+
+    public Pair<Integer, Double> boxed() { return new Pair<>(left, right); }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof IntDoublePair)) return false;
+        IntDoublePair other = (IntDoublePair) o;
+        return left == other.left &&
+               Double.compare(right, other.right) == 0;
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * Integer.hashCode(left) + Double.hashCode(right);
+    }
+
+    @Override
+    public String toString(){
+        return "(" + left + ", " + right + ")";
+    }
+}
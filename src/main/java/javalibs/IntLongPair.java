@@ -0,0 +1,43 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * @author Sean Grimes, sean@seanpgrimes.com
+ * License: MIT License
+ */
+
+/**
+ * Pair<Integer, Long> without the boxing
+ */
+@SuppressWarnings("WeakerAccess")
+public class IntLongPair {
+    private final int left;
+    private final long right;
+
+    public IntLongPair(int leftSide, long rightSide){
+        this.left = leftSide;
+        this.right = rightSide;
+    }
+
+    public int left() { return this.left; }
+    public long right() { return this.right; }
+
+    public Pair<Integer, Long> boxed() { return new Pair<>(left, right); }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof IntLongPair)) return false;
+        IntLongPair other = (IntLongPair) o;
+        return left == other.left && right == other.right;
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * Integer.hashCode(left) + Long.hashCode(right);
+    }
+
+    @Override
+    public String toString(){
+        return "(" + left + ", " + right + ")";
+    }
+}
@@ -0,0 +1,43 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * @author Sean Grimes, sean@seanpgrimes.com
+ * License: MIT License
+ */
+
+/**
+ * Pair<Integer, Integer> without the boxing
+ */
+@SuppressWarnings("WeakerAccess")
+public class IntPair {
+    private final int left;
+    private final int right;
+
+    public IntPair(int leftSide, int rightSide){
+        this.left = leftSide;
+        this.right = rightSide;
+    }
+
+    public int left() { return this.left; }
+    public int right() { return this.right; }
+
+    public Pair<Integer, Integer> boxed() { return new Pair<>(left, right); }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof IntPair)) return false;
+        IntPair other = (IntPair) o;
+        return left == other.left && right == other.right;
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * Integer.hashCode(left) + Integer.hashCode(right);
+    }
+
+    @Override
+    public String toString(){
+        return "(" + left + ", " + right + ")";
+    }
+}
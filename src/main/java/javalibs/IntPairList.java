@@ -0,0 +1,170 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * @author Sean Grimes, sean@seanpgrimes.com
+ * License: MIT License
+ */
+
+import java.util.Arrays;
+
+/**
+ * A growable list of IntPairs kept as two int[] arrays rather than a List of objects. A
+ * million entries is two arrays instead of a million objects, no per entry header or
+ * pointer, and the values are next to each other in memory for scans.
+ *
+ * get() builds an IntPair for the caller, use left(i) / right(i) in loops to skip that.
+ */
+@SuppressWarnings("WeakerAccess")
+public class IntPairList {
+    private int[] lefts;
+    private int[] rights;
+    private int size;
+
+    public IntPairList(){
+        this(PairLists.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity Number of pairs to make room for up front
+     */
+    public IntPairList(int initialCapacity){
+        if(initialCapacity < 0)
+            throw new IllegalArgumentException("IntPairList: negative capacity " + initialCapacity);
+        this.lefts = new int[initialCapacity];
+        this.rights = new int[initialCapacity];
+    }
+
+    public void add(int left, int right){
+        if(size == lefts.length) grow(size + 1);
+        lefts[size] = left;
+        rights[size] = right;
+        ++size;
+    }
+
+    public void add(IntPair pair){
+        add(pair.left(), pair.right());
+    }
+
+    public int left(int index){
+        checkIndex(index);
+        return lefts[index];
+    }
+
+    public int right(int index){
+        checkIndex(index);
+        return rights[index];
+    }
+
+    public IntPair get(int index){
+        checkIndex(index);
+        return new IntPair(lefts[index], rights[index]);
+    }
+
+    public void set(int index, int left, int right){
+        checkIndex(index);
+        lefts[index] = left;
+        rights[index] = right;
+    }
+
+    public void setLeft(int index, int left){
+        checkIndex(index);
+        lefts[index] = left;
+    }
+
+    public void setRight(int index, int right){
+        checkIndex(index);
+        rights[index] = right;
+    }
+
+    /**
+     * Remove the pair at index, shifting everything after it down by one
+     */
+    public void remove(int index){
+        checkIndex(index);
+        int tail = size - index - 1;
+        if(tail > 0){
+            System.arraycopy(lefts, index + 1, lefts, index, tail);
+            System.arraycopy(rights, index + 1, rights, index, tail);
+        }
+        --size;
+    }
+
+    public int size() { return this.size; }
+    public boolean isEmpty() { return this.size == 0; }
+
+    /**
+     * Drop every pair, the arrays are kept for reuse
+     */
+    public void clear(){
+        size = 0;
+    }
+
+    public void ensureCapacity(int minCapacity){
+        if(minCapacity > lefts.length) grow(minCapacity);
+    }
+
+    /**
+     * Shrink the arrays to exactly size()
+     */
+    public void trimToSize(){
+        if(size == lefts.length) return;
+        lefts = Arrays.copyOf(lefts, size);
+        rights = Arrays.copyOf(rights, size);
+    }
+
+    /**
+     * @return A copy of the left values, size() long
+     */
+    public int[] lefts(){
+        return Arrays.copyOf(lefts, size);
+    }
+
+    /**
+     * @return A copy of the right values, size() long
+     */
+    public int[] rights(){
+        return Arrays.copyOf(rights, size);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof IntPairList)) return false;
+        IntPairList other = (IntPairList) o;
+        if(size != other.size) return false;
+        for(int i = 0; i < size; ++i)
+            if(lefts[i] != other.lefts[i] ||
+                    rights[i] != other.rights[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode(){
+        int hash = 1;
+        for(int i = 0; i < size; ++i)
+            hash = 31 * (31 * hash + Integer.hashCode(lefts[i])) + Integer.hashCode(rights[i]);
+        return hash;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder("[");
+        for(int i = 0; i < size; ++i){
+            if(i > 0) sb.append(", ");
+            sb.append('(').append(lefts[i]).append(", ").append(rights[i]).append(')');
+        }
+        return sb.append(']').toString();
+    }
+
+    private void checkIndex(int index){
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+
+    private void grow(int minCapacity){
+        int capacity = PairLists.newCapacity(lefts.length, minCapacity);
+        lefts = Arrays.copyOf(lefts, capacity);
+        rights = Arrays.copyOf(rights, capacity);
+    }
+}
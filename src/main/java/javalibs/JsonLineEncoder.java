@@ -0,0 +1,96 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+/**
+ * Streams a TSL event out as a single JSON object, straight into a reusable
+ * StringBuilder. No maps, no intermediate strings:
+ * {"ts":1546300800000,"level":"INFO","thread":"main","channel":"log",
+ *  "logger":"pkg.Class","loc":"pkg.Class.function:12","msg":"...",
+ *  "ctx":{"key":"value","count":3}}
+ * logger, loc and ctx are only written when the event came from a named logger / has a
+ * call site / has key value context.
+ */
+final class JsonLineEncoder {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonLineEncoder(){ }
+
+    static void encode(StringBuilder sb, long epochMillis, String level, String thread,
+                       String channel, String logger, CallSite site, CharSequence msg,
+                       Object[] context){
+        sb.append("{\"ts\":").append(epochMillis);
+        sb.append(",\"level\":");
+        string(sb, level);
+        sb.append(",\"thread\":");
+        if(thread == null) sb.append("null");
+        else string(sb, thread);
+        sb.append(",\"channel\":");
+        string(sb, channel);
+        if(logger != null){
+            sb.append(",\"logger\":");
+            string(sb, logger);
+        }
+        if(site != null){
+            sb.append(",\"loc\":");
+            string(sb, site.toString());
+        }
+        sb.append(",\"msg\":");
+        string(sb, msg);
+        if(context != null && context.length > 0){
+            sb.append(",\"ctx\":{");
+            for(int i = 0; i < context.length; i += 2){
+                if(i > 0) sb.append(',');
+                string(sb, String.valueOf(context[i]));
+                sb.append(':');
+                value(sb, i + 1 < context.length ? context[i + 1] : null);
+            }
+            sb.append('}');
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Numbers and booleans go out bare, everything else as a string
+     */
+    static void value(StringBuilder sb, Object v){
+        if(v == null)
+            sb.append("null");
+        else if(v instanceof Boolean
+                || v instanceof Integer || v instanceof Long
+                || v instanceof Short || v instanceof Byte)
+            sb.append(v);
+        else if(v instanceof Double || v instanceof Float){
+            double d = ((Number)v).doubleValue();
+            // JSON has no NaN / Infinity
+            if(Double.isNaN(d) || Double.isInfinite(d)) string(sb, v.toString());
+            else sb.append(v);
+        }
+        else
+            string(sb, String.valueOf(v));
+    }
+
+    static void string(StringBuilder sb, CharSequence s){
+        sb.append('"');
+        for(int i = 0, n = s.length(); i < n; ++i){
+            char c = s.charAt(i);
+            switch(c){
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\b': sb.append("\\b"); break;
+                case '\f': sb.append("\\f"); break;
+                default:
+                    if(c < 0x20)
+                        sb.append("\\u00").append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,203 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Level configuration for the named loggers handed out by TSL.forName() / TSL.forClass().
+ *
+ * Levels are set per name and inherited by longest prefix, "com.example" covers
+ * "com.example.io.Reader" unless "com.example.io" has its own level. Anything not covered
+ * follows the TSL.LOG_* flags, read at the call site so a flag written directly still
+ * takes effect. Setting "root" writes those flags, nothing else touches them. Every change
+ * recomputes the threshold of each named logger, so the check at the call site stays a
+ * volatile int comparison.
+ *
+ * The configuration can come from a properties file that is watched for changes:
+ *      root=INFO
+ *      javalibs.FileUtils=DEBUG
+ *      com.example.noisy=OFF
+ * A reload replaces the whole configuration, including levels set with TSL.setLevel().
+ */
+final class LevelRegistry {
+    static final String ROOT = "root";
+    // Threshold that lets nothing through, one past Level.ERROR
+    static final int OFF = TSL.Level.values().length;
+    // Threshold of a logger with no configured prefix, its level comes from the flags
+    static final int INHERIT = -1;
+
+    private static final Map<String, Integer> configured = new HashMap<>();
+    private static final Map<String, TSL.NamedLogger> loggers = new HashMap<>();
+    private static Thread watcherThread;
+
+    private LevelRegistry(){ }
+
+    /**
+     * @return The logger registered under name, created by the supplied TSL on first use
+     */
+    static synchronized TSL.NamedLogger logger(TSL tsl, String name){
+        TSL.NamedLogger logger = loggers.get(name);
+        if(logger == null){
+            logger = tsl.new NamedLogger(name);
+            logger.threshold = resolve(name);
+            loggers.put(name, logger);
+        }
+        return logger;
+    }
+
+    /**
+     * Set or, with a null level, remove the level for a name and everything under it
+     */
+    static synchronized void set(String name, TSL.Level level){
+        if(level == null) configured.remove(name);
+        else configured.put(name, level.ordinal());
+        apply();
+    }
+
+    static synchronized void setOff(String name){
+        configured.put(name, OFF);
+        apply();
+    }
+
+    /**
+     * Load the levels from a properties file, then reload them every time it changes
+     * @throws UncheckedIOException If the file can't be read the first time
+     */
+    static synchronized void watch(Path file){
+        Path target = file.toAbsolutePath();
+        load(target);
+        if(watcherThread != null) watcherThread.interrupt();
+        watcherThread = new Thread(() -> watchLoop(target), "TSL-level-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+    }
+
+    /**
+     * Read the file and replace the current configuration with it
+     */
+    static void load(Path file){
+        Properties props = new Properties();
+        try(InputStream in = Files.newInputStream(file)){
+            props.load(in);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException("LevelRegistry.load() -- Unable to read " + file, e);
+        }
+        Map<String, Integer> levels = new HashMap<>();
+        for(String name : props.stringPropertyNames()){
+            String value = props.getProperty(name).trim().toUpperCase(Locale.ROOT);
+            if("OFF".equals(value)){
+                levels.put(name.trim(), OFF);
+                continue;
+            }
+            try{
+                levels.put(name.trim(), TSL.Level.valueOf(value).ordinal());
+            }
+            catch(IllegalArgumentException e){
+                TSL.get().warn("LevelRegistry.load() -- Unknown level '%s' for '%s' in %s",
+                        value, name, file);
+            }
+        }
+        synchronized(LevelRegistry.class){
+            configured.clear();
+            configured.putAll(levels);
+            apply();
+        }
+    }
+
+    private static void watchLoop(Path file){
+        Path dir = file.getParent();
+        Path fileName = file.getFileName();
+        try(WatchService watcher = FileSystems.getDefault().newWatchService()){
+            dir.register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while(!Thread.currentThread().isInterrupted()){
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for(WatchEvent<?> event : key.pollEvents())
+                    if(fileName.equals(event.context()))
+                        changed = true;
+                key.reset();
+                if(!changed) continue;
+                // Editors tend to write in several steps, let the file settle first
+                Thread.sleep(50);
+                try{
+                    load(file);
+                    TSL.get().info("Reloaded log levels from " + file);
+                }
+                catch(UncheckedIOException e){
+                    TSL.get().warn("Unable to reload log levels, keeping the old ones: " +
+                            e.getMessage());
+                }
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException e){
+            // Replaced by a newer watch() or shutting down
+        }
+        catch(IOException e){
+            TSL.get().exception(e);
+        }
+    }
+
+    /**
+     * Push the configuration out to every named logger, and to the TSL.LOG_* flags if root
+     * has been set. Without a root the flags are left as they are
+     */
+    private static void apply(){
+        Integer root = configured.get(ROOT);
+        if(root != null){
+            TSL.LOG_TRACE = root <= TSL.Level.TRACE.ordinal();
+            TSL.LOG_DEBUG = root <= TSL.Level.DEBUG.ordinal();
+            TSL.LOG_INFO = root <= TSL.Level.INFO.ordinal();
+            TSL.LOG_WARN = root <= TSL.Level.WARN.ordinal();
+        }
+        for(TSL.NamedLogger logger : loggers.values())
+            logger.threshold = resolve(logger.name);
+    }
+
+    /**
+     * Longest configured prefix of name, split on '.' and '$', else INHERIT
+     */
+    private static int resolve(String name){
+        String prefix = name;
+        while(true){
+            Integer level = configured.get(prefix);
+            if(level != null) return level;
+            int cut = Math.max(prefix.lastIndexOf('.'), prefix.lastIndexOf('$'));
+            if(cut < 0) break;
+            prefix = prefix.substring(0, cut);
+        }
+        // The flags can't say OFF, errors would still get through
+        Integer root = configured.get(ROOT);
+        return root != null && root == OFF ? OFF : INHERIT;
+    }
+
+    /**
+     * Level implied by the TSL.LOG_* flags, what an INHERIT logger answers to
+     */
+    static int flagThreshold(){
+        if(TSL.LOG_TRACE) return TSL.Level.TRACE.ordinal();
+        if(TSL.LOG_DEBUG) return TSL.Level.DEBUG.ordinal();
+        if(TSL.LOG_INFO) return TSL.Level.INFO.ordinal();
+        if(TSL.LOG_WARN) return TSL.Level.WARN.ordinal();
+        return TSL.Level.ERROR.ordinal();
+    }
+}
@@ -0,0 +1,185 @@
+package javalibs;
+/*
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Counts lines the way BufferedReader.readLine() splits them ("\n", "\r\n" or a lone "\r"
+ * ends a line, a final line without one still counts) by looking at the raw bytes, no
+ * decoding and no Strings. Works for UTF-8 and any ASCII compatible charset, since '\r' and
+ * '\n' bytes never show up inside a multi byte character there.
+ *
+ * Lines = '\n' bytes + '\r' bytes - "\r\n" pairs, + 1 if the last byte isn't either. The
+ * file is memory mapped a window at a time and read 8 bytes per long; the bytes equal to
+ * '\n' / '\r' are found with the usual SWAR zero byte trick and counted with bitCount.
+ *
+ * In parallel mode the file is cut into one range per core, each counted on its own, and a
+ * "\r\n" split across two ranges is fixed up when they're combined.
+ */
+final class LineCounter {
+    // Mapped at a time, well under the 2GB a MappedByteBuffer can hold
+    private static final int WINDOW = 1 << 30;
+    // Smaller ranges aren't worth a thread
+    private static final long MIN_PARALLEL_RANGE = 64L << 20;
+    // For anything that can't be mapped (pipes, devices)
+    private static final int READ_BUFFER = 1 << 20;
+
+    private static final long LF = 0x0A0A0A0A0A0A0A0AL;
+    private static final long CR = 0x0D0D0D0D0D0D0D0DL;
+    private static final long LOW_SEVEN = 0x7F7F7F7F7F7F7F7FL;
+
+    private LineCounter(){ }
+
+    static long count(Path file, boolean parallel) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if(!Files.isRegularFile(file))
+                return readAll(channel).lines();
+            long size = channel.size();
+            int parts = !parallel ? 1 : (int)Math.max(1,
+                    Math.min(Runtime.getRuntime().availableProcessors(), size / MIN_PARALLEL_RANGE));
+            if(parts == 1)
+                return mapRange(channel, 0, size).lines();
+
+            long step = size / parts;
+            try{
+                List<Counts> ranges = IntStream.range(0, parts).parallel()
+                        .mapToObj(p -> {
+                            long start = p * step;
+                            long end = p == parts - 1 ? size : start + step;
+                            try{
+                                return mapRange(channel, start, end);
+                            }
+                            catch(IOException e){
+                                throw new UncheckedIOException(e);
+                            }
+                        })
+                        .collect(Collectors.toList());
+                Counts total = new Counts();
+                for(Counts range : ranges)
+                    total.append(range);
+                return total.lines();
+            }
+            catch(UncheckedIOException e){
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static Counts mapRange(FileChannel channel, long start, long end)
+            throws IOException {
+        Counts counts = new Counts();
+        for(long pos = start; pos < end; pos += WINDOW){
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                    Math.min(WINDOW, end - pos));
+            scan(window.order(ByteOrder.LITTLE_ENDIAN), counts);
+        }
+        return counts;
+    }
+
+    private static Counts readAll(FileChannel channel) throws IOException {
+        Counts counts = new Counts();
+        ByteBuffer buffer =
+                ByteBuffer.allocateDirect(READ_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        while(channel.read(buffer) >= 0){
+            buffer.flip();
+            scan(buffer, counts);
+            buffer.clear();
+        }
+        return counts;
+    }
+
+    /**
+     * Add the bytes between buf's position and limit to counts, which holds everything
+     * that came right before them
+     */
+    private static void scan(ByteBuffer buf, Counts counts){
+        int start = buf.position();
+        int end = buf.limit();
+        if(start == end) return;
+        long lf = 0, cr = 0, pairs = 0;
+        if(counts.last == '\r' && buf.get(start) == '\n') ++pairs;
+
+        int i = start;
+        for(; i + 8 <= end; i += 8){
+            long word = buf.getLong(i);
+            long lfs = matches(word ^ LF);
+            long crs = matches(word ^ CR);
+            lf += Long.bitCount(lfs);
+            cr += Long.bitCount(crs);
+            // A '\r' byte with a '\n' in the next byte up
+            pairs += Long.bitCount(crs & (lfs >>> 8));
+            // '\r' as the last byte of the word, the '\n' would be the next word's first
+            if(crs < 0 && i + 8 < end && buf.get(i + 8) == '\n') ++pairs;
+        }
+        int tail = i;
+        for(; i < end; ++i){
+            byte b = buf.get(i);
+            if(b == '\n'){
+                ++lf;
+                if(i > tail && buf.get(i - 1) == '\r') ++pairs;
+            }
+            else if(b == '\r')
+                ++cr;
+        }
+
+        if(counts.empty){
+            counts.first = buf.get(start);
+            counts.empty = false;
+        }
+        counts.last = buf.get(end - 1);
+        counts.lf += lf;
+        counts.cr += cr;
+        counts.pairs += pairs;
+    }
+
+    /**
+     * @return 0x80 in every byte of x that is zero, 0 in the rest. Exact, unlike the
+     * cheaper (x - 0x01..) & ~x & 0x80.. version that can flag the byte above a zero
+     */
+    private static long matches(long x){
+        long t = (x & LOW_SEVEN) + LOW_SEVEN;
+        return ~(t | x | LOW_SEVEN);
+    }
+
+    private static final class Counts {
+        long lf;
+        long cr;
+        long pairs;
+        boolean empty = true;
+        byte first;
+        byte last;
+
+        /**
+         * Combine with the range that comes right after this one
+         */
+        void append(Counts next){
+            if(next.empty) return;
+            if(!empty && last == '\r' && next.first == '\n') ++pairs;
+            if(empty) first = next.first;
+            lf += next.lf;
+            cr += next.cr;
+            pairs += next.pairs;
+            last = next.last;
+            empty = false;
+        }
+
+        long lines(){
+            long lines = lf + cr - pairs;
+            if(!empty && last != '\n' && last != '\r') ++lines;
+            return lines;
+        }
+    }
+}
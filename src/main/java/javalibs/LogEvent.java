@@ -0,0 +1,70 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+/**
+ * A single message headed for the TSL writer thread. The level is kept as an int and the
+ * payload by reference so the producer never has to build a prefixed string that the
+ * writer then has to split apart again.
+ *
+ * NOTE: Instances are recycled when TSL is running on its ring buffer, never hold on to
+ * one after the writer has handled it.
+ */
+final class LogEvent {
+    int level;
+    Object payload;
+    // Non-null when payload is a format string that still has to be applied
+    Object[] args;
+    // Epoch millis, captured by the producer when the event is queued
+    long timestamp;
+    // Alternating key / value pairs from TSL.with(), null when there are none
+    Object[] context;
+    // Producing thread's name, only captured when TSL.JSON_OUTPUT is on
+    String thread;
+    // Where the message was logged from, only set by autoLog / errFrom / Logic.require
+    CallSite site;
+    // The NamedLogger it came from, its level decides whether a lazy message is rendered
+    TSL.NamedLogger logger;
+
+    LogEvent(){ }
+
+    LogEvent(int level, Object payload){
+        this.level = level;
+        this.payload = payload;
+        this.timestamp = System.currentTimeMillis();
+        this.thread = TSL.JSON_OUTPUT ? Thread.currentThread().getName() : null;
+    }
+
+    LogEvent(int level, Object payload, Object[] args){
+        this(level, payload);
+        this.args = args;
+    }
+
+    LogEvent(int level, Object payload, Object[] args, Object[] context){
+        this(level, payload, args);
+        this.context = context;
+    }
+
+    void set(int level, Object payload, Object[] args, Object[] context, CallSite site,
+             TSL.NamedLogger logger){
+        this.level = level;
+        this.payload = payload;
+        this.args = args;
+        this.context = context;
+        this.site = site;
+        this.logger = logger;
+        this.timestamp = System.currentTimeMillis();
+        this.thread = TSL.JSON_OUTPUT ? Thread.currentThread().getName() : null;
+    }
+
+    void clear(){
+        this.payload = null;
+        this.args = null;
+        this.context = null;
+        this.thread = null;
+        this.site = null;
+        this.logger = null;
+    }
+}
@@ -0,0 +1,219 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2019 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limiting and sampling for MTOut, the part that copes with a failing dependency
+ * spitting out a million errors that only differ by an id.
+ *
+ * Rate limiting keeps a token bucket per key, the key being either the call site or the
+ * message with every number / hex id collapsed, so "Timeout for order 1234" and "Timeout
+ * for order 98" share a bucket, as do messages that differ by a UUID. The buckets are a
+ * single AtomicLong each (the theoretical arrival time of the next allowed line), so
+ * checking one is a read and a CAS. Once maxKeys buckets exist, new keys all share one
+ * overflow bucket until the next roll up clears them.
+ *
+ * Sampling then lets through 1 in N of what's left, or adapts N once a second so that about
+ * targetPerSecond lines get through.
+ *
+ * Everything held back is counted, rollUp() reports the totals and resets them.
+ */
+final class LogLimiter {
+    interface RollUp {
+        /**
+         * @param count Lines held back by the rate limit
+         * @param keys Number of keys they were spread over
+         * @param sample A line from the key that had the most held back
+         */
+        void limited(long count, int keys, String sample);
+        void sampled(long dropped, long offered);
+    }
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final MTOut.LimitBy limitBy;
+    private final int sampleOneIn;
+    private final double targetPerSecond;
+    private final int maxKeys;
+    private final Map<Long, Bucket> buckets = new ConcurrentHashMap<>();
+    // Shared by every key that shows up once maxKeys buckets exist
+    private final Bucket overflow = new Bucket("(lines past the distinct key limit)");
+
+    // Adaptive sampling state
+    private final AtomicLong offeredThisWindow = new AtomicLong();
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private volatile double keepProbability = 1.0;
+
+    private final AtomicLong sampledOut = new AtomicLong();
+    private final AtomicLong sampledOffered = new AtomicLong();
+
+    /**
+     * @param perSecond Lines per second allowed per key, 0 for no rate limit
+     * @param burst Lines a key can send at once before the rate applies
+     * @param limitBy What the buckets are keyed on
+     * @param sampleOneIn Keep 1 in this many lines, 1 or less for no fixed sampling
+     * @param targetPerSecond Adapt sampling to keep about this many lines a second, 0 for
+     *                        no adaptive sampling
+     * @param maxKeys Buckets kept, later keys share one until a roll up drops them all
+     */
+    LogLimiter(double perSecond, int burst, MTOut.LimitBy limitBy, int sampleOneIn,
+               double targetPerSecond, int maxKeys){
+        this.intervalNanos = perSecond > 0 ? (long)(TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+        this.toleranceNanos = intervalNanos * Math.max(0, burst - 1);
+        this.limitBy = limitBy;
+        this.sampleOneIn = sampleOneIn;
+        this.targetPerSecond = targetPerSecond;
+        this.maxKeys = Math.max(1, maxKeys);
+    }
+
+    /**
+     * @return True if the line should be written
+     */
+    boolean admit(String msg){
+        if(intervalNanos > 0 && !takeToken(msg))
+            return false;
+        if(sampleOneIn <= 1 && targetPerSecond <= 0)
+            return true;
+        sampledOffered.incrementAndGet();
+        boolean keep = true;
+        if(sampleOneIn > 1)
+            keep = ThreadLocalRandom.current().nextInt(sampleOneIn) == 0;
+        if(keep && targetPerSecond > 0){
+            adaptSampling();
+            double p = keepProbability;
+            keep = p >= 1.0 || ThreadLocalRandom.current().nextDouble() < p;
+        }
+        if(!keep) sampledOut.incrementAndGet();
+        return keep;
+    }
+
+    /**
+     * Report and reset everything held back since the last roll up
+     */
+    void rollUp(RollUp out){
+        long most = overflow.limited.getAndSet(0);
+        long total = most;
+        int keys = most > 0 ? 1 : 0;
+        String sample = overflow.sample;
+        for(Bucket bucket : buckets.values()){
+            long count = bucket.limited.getAndSet(0);
+            if(count == 0) continue;
+            total += count;
+            ++keys;
+            if(count > most){
+                most = count;
+                sample = bucket.sample;
+            }
+        }
+        if(total > 0) out.limited(total, keys, sample);
+        long dropped = sampledOut.getAndSet(0);
+        long offered = sampledOffered.getAndSet(0);
+        if(dropped > 0) out.sampled(dropped, offered);
+        if(buckets.size() >= maxKeys)
+            buckets.clear();
+    }
+
+    private boolean takeToken(String msg){
+        long key = limitBy == MTOut.LimitBy.CALL_SITE
+                ? DuplicateFilter.hash(CallSite.caller().toString())
+                : normalizedHash(msg);
+        Bucket bucket = buckets.get(key);
+        if(bucket == null){
+            if(buckets.size() >= maxKeys){
+                bucket = overflow;
+            }
+            else{
+                Bucket fresh = new Bucket(msg);
+                bucket = buckets.putIfAbsent(key, fresh);
+                if(bucket == null) bucket = fresh;
+            }
+        }
+        long now = System.nanoTime();
+        while(true){
+            long next = bucket.nextFree.get();
+            long base = next - now > 0 ? next : now;
+            if(base - now > toleranceNanos){
+                bucket.limited.incrementAndGet();
+                return false;
+            }
+            if(bucket.nextFree.compareAndSet(next, base + intervalNanos))
+                return true;
+        }
+    }
+
+    /**
+     * Once a second, set the keep probability from how many lines were offered in the
+     * second before
+     */
+    private void adaptSampling(){
+        offeredThisWindow.incrementAndGet();
+        long start = windowStart.get();
+        long now = System.nanoTime();
+        long elapsed = now - start;
+        if(elapsed < TimeUnit.SECONDS.toNanos(1) || !windowStart.compareAndSet(start, now))
+            return;
+        double perSecond = offeredThisWindow.getAndSet(0) * 1e9 / elapsed;
+        keepProbability = perSecond <= targetPerSecond ? 1.0 : targetPerSecond / perSecond;
+    }
+
+    /**
+     * DuplicateFilter.hash() with every id hashed as a single '#'. An id is a run of hex
+     * digits and '-' with at least one decimal digit in it, which covers plain numbers,
+     * hex ids, and UUIDs, while words that happen to be made of a-f ("deface") stay
+     */
+    static long normalizedHash(CharSequence s){
+        long h = 0xcbf29ce484222325L;
+        int n = s.length();
+        int i = 0;
+        while(i < n){
+            char c = s.charAt(i);
+            if(!isIdChar(c)){
+                h ^= c;
+                h *= 0x100000001b3L;
+                ++i;
+                continue;
+            }
+            int start = i;
+            boolean digit = false;
+            for(; i < n && isIdChar(c = s.charAt(i)); ++i)
+                digit |= c >= '0' && c <= '9';
+            if(digit){
+                h ^= '#';
+                h *= 0x100000001b3L;
+                continue;
+            }
+            for(int j = start; j < i; ++j){
+                h ^= s.charAt(j);
+                h *= 0x100000001b3L;
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static boolean isIdChar(char c){
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')
+                || c == '-';
+    }
+
+    private static final class Bucket {
+        // First message seen for the key, shown in the roll up
+        final String sample;
+        final AtomicLong nextFree = new AtomicLong(System.nanoTime());
+        final AtomicLong limited = new AtomicLong();
+
+        Bucket(String sample){
+            this.sample = sample;
+        }
+    }
+}
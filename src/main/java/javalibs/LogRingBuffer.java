@@ -0,0 +1,158 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pre-allocated, bounded, multi-producer / single-consumer ring buffer used by TSL in
+ * place of the ArrayBlockingQueue. Producers claim a slot with a single CAS on the tail
+ * cursor, fill in the fields of the recycled LogEvent, then commit it by bumping that
+ * slot's sequence number. The writer thread is the only consumer so the
+ * head cursor never needs a CAS.
+ *
+ * NOTE: Every slot carries its own sequence number (Vyukov style). A slot is free for the
+ * producer that claimed position p when its sequence equals p, and ready for the consumer
+ * when its sequence equals p + 1.
+ */
+final class LogRingBuffer {
+    interface Handler {
+        /**
+         * @param event The event in the slot, only valid for the duration of the call
+         * @return False to stop draining (i.e. the shutdown request was seen)
+         */
+        boolean onEvent(LogEvent event);
+    }
+
+    private static final int SPIN_TRIES = 64;
+    private static final int YIELD_TRIES = 128;
+    private static final long MAX_PARK_NANOS = 1_000_000L;
+
+    private final LogEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final int mask;
+    // Set once the consumer has stopped, nothing will free a slot after that
+    private volatile boolean closed;
+
+    /**
+     * @param requestedSize Number of slots, rounded up to the next power of two
+     */
+    LogRingBuffer(int requestedSize){
+        int size = 1;
+        while(size < requestedSize && size < (1 << 30)) size <<= 1;
+        this.mask = size - 1;
+        this.slots = new LogEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; ++i){
+            this.slots[i] = new LogEvent();
+            this.sequences.set(i, i);
+        }
+    }
+
+    int capacity(){ return this.slots.length; }
+
+    /**
+     * Approximate number of events waiting for the writer
+     */
+    int size(){
+        long size = this.tail.get() - this.head.get();
+        return size < 0 ? 0 : (int)size;
+    }
+
+    /**
+     * Try to claim the next slot without waiting. The caller fills in slotAt(pos) and then
+     * has to commit(pos), the consumer stalls on that slot until it does
+     * @return The claimed position, or -1 if the buffer is full
+     */
+    long tryClaim(){
+        while(true){
+            long pos = this.tail.get();
+            long dif = this.sequences.get((int)(pos & this.mask)) - pos;
+            if(dif == 0){
+                if(this.tail.compareAndSet(pos, pos + 1)) return pos;
+            }
+            else if(dif < 0)
+                return -1;
+        }
+    }
+
+    /**
+     * Claim the next slot, spinning, yielding, then parking while the buffer is full
+     * @return The claimed position, or -1 if the consumer stopped while waiting
+     */
+    long claim(){
+        int attempt = 0;
+        long pos;
+        while((pos = tryClaim()) < 0){
+            if(closed) return -1;
+            attempt = backoff(attempt);
+        }
+        return pos;
+    }
+
+    /**
+     * Called by the consumer when it stops, so producers waiting on a full buffer give up
+     */
+    void close(){
+        this.closed = true;
+    }
+
+    LogEvent slotAt(long pos){
+        return this.slots[(int)(pos & this.mask)];
+    }
+
+    /**
+     * Make a claimed and filled slot visible to the consumer
+     */
+    void commit(long pos){
+        this.sequences.lazySet((int)(pos & this.mask), pos + 1);
+    }
+
+    /**
+     * Hand up to max published events to the handler, in order. Must only be called from
+     * the single consumer thread.
+     * @return The number of events handled, or -1 if the handler asked to stop
+     */
+    int drain(Handler handler, int max){
+        long cursor = this.head.get();
+        int handled = 0;
+        while(handled < max){
+            int idx = (int)(cursor & this.mask);
+            if(this.sequences.get(idx) != cursor + 1) break;
+            LogEvent slot = this.slots[idx];
+            boolean keepGoing = handler.onEvent(slot);
+            slot.clear();
+            this.sequences.lazySet(idx, cursor + this.slots.length);
+            ++cursor;
+            ++handled;
+            this.head.lazySet(cursor);
+            if(!keepGoing) return -1;
+        }
+        return handled;
+    }
+
+    /**
+     * Progressive back off used by both producers (full buffer) and the consumer (empty
+     * buffer): spin, then yield, then park for an increasing amount of time
+     * @param attempt The number of consecutive failed attempts so far
+     * @return The attempt count to pass in next time
+     */
+    static int backoff(int attempt){
+        if(attempt < SPIN_TRIES){
+            // Busy spin
+        }
+        else if(attempt < YIELD_TRIES)
+            Thread.yield();
+        else{
+            int shift = Math.min(attempt - YIELD_TRIES, 10);
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L << shift));
+        }
+        return attempt + 1;
+    }
+}
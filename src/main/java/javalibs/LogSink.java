@@ -0,0 +1,20 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+/**
+ * Somewhere other than the log files for TSL to send its lines, add one with
+ * TSL.get().addSink(). write() is called on the TSL writer thread with the line exactly as
+ * it went to the file (text or JSON, no line separator), so it must not block. Anything
+ * slow belongs behind an AsyncSink.
+ */
+public interface LogSink {
+    void write(String line);
+
+    /**
+     * Called once when the logger shuts down, after the last write()
+     */
+    default void close(){ }
+}
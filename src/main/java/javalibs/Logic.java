@@ -27,7 +27,7 @@ public class Logic {
      */
     public void require(boolean trueToLive, Object msg) {
         if(!ALLOW_REQUIRE || trueToLive) return;
-        log.die(log.getStackInfo(msg));
+        log.dieFrom(msg);
     }
 
     /**
@@ -38,7 +38,7 @@ public class Logic {
      */
     public void require(boolean trueToLive) {
         if(!ALLOW_REQUIRE || trueToLive) return;
-        log.die(log.getStackInfo(""));
+        log.dieFrom("");
     }
 
     /**
@@ -46,6 +46,6 @@ public class Logic {
      * @param msg Message to be logged
      */
     public void dieFrom(Object msg) {
-        log.die(log.getStackInfo(msg));
+        log.dieFrom(msg);
     }
 }
@@ -0,0 +1,43 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * @author Sean Grimes, sean@seanpgrimes.com
+ * License: MIT License
+ */
+
+/**
+ * Pair<Long, Long> without the boxing
+ */
+@SuppressWarnings("WeakerAccess")
+public class LongPair {
+    private final long left;
+    private final long right;
+
+    public LongPair(long leftSide, long rightSide){
+        this.left = leftSide;
+        this.right = rightSide;
+    }
+
+    public long left() { return this.left; }
+    public long right() { return this.right; }
+
+    public Pair<Long, Long> boxed() { return new Pair<>(left, right); }
+
+    @Override
+    public boolean equals(Object o){
+        if(this == o) return true;
+        if(!(o instanceof LongPair)) return false;
+        LongPair other = (LongPair) o;
+        return left == other.left && right == other.right;
+    }
+
+    @Override
+    public int hashCode(){
+        return 31 * Long.hashCode(left) + Long.hashCode(right);
+    }
+
+    @Override
+    public String toString(){
+        return "(" + left + ", " + right + ")";
+    }
+}
@@ -6,29 +6,99 @@ package javalibs;
  * License: MIT License
  */
 
-import com.google.common.collect.EvictingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Simple class that allows multiple threads to call the same print / log functions,
  * however the print or log functions will only be called a single time, cleaning up
  * the output and allowing everything to be more readable
  *
+ * A message that was printed / logged recently is held back instead, recently meaning
+ * within the last DEDUPE_WINDOW_MESSAGES calls, or DEDUPE_WINDOW_MS if that's set. All the
+ * entry points share one lock free table of message hashes (see DuplicateFilter), so
+ * threads no longer line up on a monitor. When a held back message comes around again,
+ * gets pushed out of the table, or summarize() is called, a line saying how many times it
+ * repeated is logged through TSL.
+ *
+ * On top of that, near duplicates can be rate limited and sampled (see LogLimiter): a
+ * token bucket per call site or per message with numbers and ids ignored, then 1 in
+ * SAMPLE_ONE_IN, or however many fit SAMPLE_TARGET_PER_SEC. Every ROLLUP_INTERVAL_MS a
+ * summary of whatever was held back is logged. All of it is off by default.
+ *
  * NOTE: This class will use TSL for logging calls
- * NOTE (MORE IMPORTANT): This is a bullshit way to handle this but I don't have the
- * time to figure out the 'right' way to do this. I'm sure somebody that knows Java
- * better an I do would have a pretty good way to handle this off the bat. As it stands
- * this is literally just synchronizing the methods and checking if the string to be
- * printed / logged is already in the buffer. It if is then I assume I don't want to
- * see it again so quickly so I ignore the msg. Each function call adds the new string,
- * or an empty string (to move the circular buffer forward).
+ * NOTE: The DEDUPE_* / RATE_* / SAMPLE_* settings are read once, set them before the first
+ * MTOut.get()
  */
 public class MTOut {
-    private static final int BUFFER_SIZE = 64;
+    // Number of distinct recent messages remembered
+    public static int DEDUPE_CAPACITY           = 4096;
+    // Hold back repeats for this long, 0 to go by DEDUPE_WINDOW_MESSAGES instead
+    public static long DEDUPE_WINDOW_MS         = 0;
+    // Hold back repeats until this many other messages have gone by
+    public static long DEDUPE_WINDOW_MESSAGES   = 64;
+    // Log "repeated N times" lines for held back messages
+    public static boolean LOG_REPEAT_SUMMARIES  = true;
+    // Lines per second allowed per key, 0 turns rate limiting off
+    public static double RATE_LIMIT_PER_SEC     = 0;
+    // Lines a key can send back to back before the rate kicks in
+    public static int RATE_LIMIT_BURST          = 10;
+    public static LimitBy RATE_LIMIT_BY         = LimitBy.MESSAGE;
+    // Distinct keys with their own bucket, later keys share one until the next roll up
+    public static int RATE_LIMIT_MAX_KEYS       = 10000;
+    // Keep 1 in N lines, 1 turns fixed sampling off
+    public static int SAMPLE_ONE_IN             = 1;
+    // Sample to about this many lines per second, 0 turns adaptive sampling off
+    public static double SAMPLE_TARGET_PER_SEC  = 0;
+    // How often to log what the rate limit / sampling held back
+    public static long ROLLUP_INTERVAL_MS       = 10000;
+
+    /**
+     * What the rate limit buckets are keyed on
+     * CALL_SITE -- The class / function / line that called MTOut
+     * MESSAGE   -- The message with every number, hex id, and UUID treated as the same,
+     *              so messages that only differ by an id or a count share a bucket
+     */
+    public enum LimitBy { CALL_SITE, MESSAGE }
+
     private static volatile MTOut _instance;
     private final TSL log = TSL.get();
-    private final EvictingQueue<String> buffer = EvictingQueue.create(BUFFER_SIZE);
+    private final DuplicateFilter filter = new DuplicateFilter(DEDUPE_CAPACITY,
+            DEDUPE_WINDOW_MS, DEDUPE_WINDOW_MESSAGES, this::repeated);
+    private final LogLimiter limiter;
+    private final LogLimiter.RollUp rollUp = new LogLimiter.RollUp(){
+        @Override
+        public void limited(long count, int keys, String sample){
+            log.info("MTOut -- rate limited %d line%s from %d key%s, most often: %s", count,
+                    count == 1 ? "" : "s", keys, keys == 1 ? "" : "s", sample);
+        }
 
-    private MTOut(){}
+        @Override
+        public void sampled(long dropped, long offered){
+            log.info("MTOut -- sampled out %d of %d lines", dropped, offered);
+        }
+    };
+
+    private MTOut(){
+        boolean limiting = RATE_LIMIT_PER_SEC > 0 || SAMPLE_ONE_IN > 1
+                || SAMPLE_TARGET_PER_SEC > 0;
+        if(!limiting){
+            this.limiter = null;
+            return;
+        }
+        this.limiter = new LogLimiter(RATE_LIMIT_PER_SEC, RATE_LIMIT_BURST, RATE_LIMIT_BY,
+                SAMPLE_ONE_IN, SAMPLE_TARGET_PER_SEC, RATE_LIMIT_MAX_KEYS);
+        if(ROLLUP_INTERVAL_MS > 0){
+            ScheduledExecutorService roller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "MTOut-rollup");
+                t.setDaemon(true);
+                return t;
+            });
+            roller.scheduleAtFixedRate(() -> limiter.rollUp(rollUp), ROLLUP_INTERVAL_MS,
+                    ROLLUP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
 
     public static MTOut get(){
         if(_instance == null){
@@ -42,71 +112,63 @@ public class MTOut {
     }
 
     public void writeln(String msg){
-        synchronized (this){
-            if(inBuffer(msg)) return;
-            Out.get().writeln(msg);
-        }
+        if(admit(msg)) Out.get().writeln(msg);
     }
 
     public void write(String msg){
-        synchronized (this){
-            if(inBuffer(msg)) return;
-            Out.get().write(msg);
-        }
+        if(admit(msg)) Out.get().write(msg);
     }
 
     public void info(String msg){
-        synchronized (this) {
-            if(inBuffer(msg)) return;
-            log.info(msg);
-        }
+        if(admit(msg)) log.info(msg);
     }
 
     public void results(String msg){
-        synchronized (this) {
-            if(inBuffer(msg)) return;
-            log.results(msg);
-        }
+        if(admit(msg)) log.results(msg);
     }
 
     public void swarm(String msg) {
-        synchronized (this) {
-            if(inBuffer(msg)) return;
-            log.swarm(msg);
-        }
+        if(admit(msg)) log.swarm(msg);
     }
 
     public void debug(String msg){
-        synchronized (this){
-            if(inBuffer(msg)) return;
-            log.debug(msg);
-        }
+        if(admit(msg)) log.debug(msg);
     }
 
     public void trace(String msg){
-        synchronized (this){
-            if(inBuffer(msg)) return;
-            log.trace(msg);
-        }
+        if(admit(msg)) log.trace(msg);
     }
 
     public void warn(String msg){
-        synchronized (this) {
-            if(inBuffer(msg)) return;
-            log.warn(msg);
-        }
+        if(admit(msg)) log.warn(msg);
     }
 
     public void err(String msg){
-        synchronized (this) {
-            if(inBuffer(msg)) return;
-            log.err(msg);
-        }
+        if(admit(msg)) log.err(msg);
+    }
+
+    /**
+     * Log a "repeated N times" line for every message with held back copies right now, and
+     * the rate limit / sampling roll up, e.g. at the end of a run
+     */
+    public void summarize(){
+        filter.summarize();
+        if(limiter != null) limiter.rollUp(rollUp);
+    }
+
+    /**
+     * @return Number of messages held back as duplicates so far
+     */
+    public long suppressedCount(){
+        return filter.heldCount();
+    }
+
+    private boolean admit(String msg){
+        return filter.admit(msg) && (limiter == null || limiter.admit(msg));
     }
 
-    private boolean inBuffer(String msg) {
-        boolean found = buffer.contains(msg);
-        buffer.add(msg);
-        return found;
+    private void repeated(String msg, long times){
+        if(LOG_REPEAT_SUMMARIES)
+            log.info("MTOut -- repeated %d more time%s: %s", times, times == 1 ? "" : "s", msg);
     }
 }
@@ -0,0 +1,166 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only binary log channel backed by pre-sized, memory mapped segment files. The
+ * calling thread reserves space with a single atomic bump of the segment position and
+ * copies its record straight into the mapping, there's no queue and no writer thread.
+ * The OS owns the mapped pages so everything appended survives the process crashing.
+ *
+ * Segment layout: int MAGIC, int VERSION, then records of
+ *     int    length of the record in bytes, not counting the padding
+ *     byte   commit flag, 0 until the record is completely written
+ *     byte   TSL level
+ *     long   epoch nanos
+ *     long   thread id
+ *     byte[] UTF-8 payload
+ *     zeros  padding to the next multiple of ALIGNMENT
+ * Every record starts on an ALIGNMENT boundary. A writer that dies after reserving its space
+ * but before writing the length leaves a gap of zeros, and other threads may already have
+ * committed records after it. Since a record's length is never 0, the first non zero aligned
+ * long after a gap is the start of the next record, so the reader skips gaps and only stops
+ * once the rest of the segment is zeros. MappedLogReader turns segments back into text.
+ */
+final class MappedLogChannel {
+    static final int MAGIC = 0x54534C42; // "TSLB"
+    // Version 1 had no alignment, a zero length there is the end of the data
+    static final int VERSION = 2;
+    static final int FILE_HEADER = 8;
+    static final int RECORD_HEADER = 4 + 1 + 1 + 8 + 8;
+    static final int ALIGNMENT = 8;
+    static final String EXTENSION = ".tslb";
+
+    private final String basePath;
+    private final int segmentBytes;
+    private volatile Segment current;
+    private int segmentCount;
+    private boolean closed;
+
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final AtomicLong position = new AtomicLong(FILE_HEADER);
+
+        Segment(MappedByteBuffer buffer){
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * @param basePath Segments are written to basePath_N.tslb
+     * @param segmentBytes Size each segment file is allocated at
+     */
+    MappedLogChannel(String basePath, long segmentBytes) throws IOException {
+        this.basePath = basePath;
+        this.segmentBytes = (int)Math.min(Integer.MAX_VALUE,
+                Math.max(FILE_HEADER + RECORD_HEADER + 1024, segmentBytes)) & -ALIGNMENT;
+        this.current = newSegment();
+    }
+
+    /**
+     * Append a record from the calling thread. Payloads too big for a single segment are
+     * truncated to fit
+     */
+    void append(int level, Object msg){
+        byte[] payload = String.valueOf(msg).getBytes(StandardCharsets.UTF_8);
+        int maxPayload = this.segmentBytes - FILE_HEADER - RECORD_HEADER;
+        int payloadLength = Math.min(payload.length, maxPayload);
+        int size = RECORD_HEADER + payloadLength;
+        int reserved = align(size);
+        long nanos = epochNanos();
+        long threadId = Thread.currentThread().getId();
+
+        while(true){
+            Segment seg = this.current;
+            if(seg == null) return;
+            long pos = seg.position.getAndAdd(reserved);
+            if(pos + reserved <= this.segmentBytes){
+                write(seg.buffer, (int)pos, size, level, nanos, threadId, payload,
+                        payloadLength);
+                return;
+            }
+            // Didn't fit. The unused tail of the segment is still zeroed, which the reader
+            // treats as the end of the data
+            roll(seg);
+        }
+    }
+
+    /**
+     * Force everything to disk and stop accepting records
+     */
+    synchronized void close(){
+        if(this.closed) return;
+        this.closed = true;
+        Segment seg = this.current;
+        this.current = null;
+        if(seg != null) release(seg);
+    }
+
+    /**
+     * @return length rounded up to the next ALIGNMENT boundary
+     */
+    static int align(int length){
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static void write(MappedByteBuffer buffer, int pos, int size, int level,
+                              long nanos, long threadId, byte[] payload, int payloadLength){
+        buffer.putInt(pos, size);
+        buffer.put(pos + 5, (byte)level);
+        buffer.putLong(pos + 6, nanos);
+        buffer.putLong(pos + 14, threadId);
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(pos + RECORD_HEADER);
+        dup.put(payload, 0, payloadLength);
+        // Commit flag goes last, a record without it was cut off mid write
+        buffer.put(pos + 4, (byte)1);
+    }
+
+    private synchronized void roll(Segment full){
+        if(this.current != full || this.closed) return;
+        try{
+            this.current = newSegment();
+        }
+        catch(IOException e){
+            e.printStackTrace();
+            Out.get().writeln_err("*** Unable to create binary log segment, channel closed");
+            this.current = null;
+            this.closed = true;
+        }
+        release(full);
+    }
+
+    private Segment newSegment() throws IOException {
+        String path = this.basePath + "_" + (++this.segmentCount) + EXTENSION;
+        try(RandomAccessFile raf = new RandomAccessFile(path, "rw")){
+            raf.setLength(this.segmentBytes);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentBytes);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            // The mapping stays valid after the channel is closed
+            return new Segment(buffer);
+        }
+    }
+
+    private static void release(Segment seg){
+        seg.buffer.force();
+    }
+
+    private static long epochNanos(){
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+}
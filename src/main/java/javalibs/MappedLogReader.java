@@ -0,0 +1,127 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the binary segments written by TSL's memory mapped channels (see
+ * TSL.BINARY_RESULTS / TSL.BINARY_SWARM) back into the usual text format:
+ *     [RES] (HH:mm:ss.mmm) > message
+ * Records that were cut off mid write (the process died) are skipped.
+ *
+ * Can also be run from the command line: MappedLogReader segment.tslb [more.tslb ...]
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class MappedLogReader {
+    private MappedLogReader(){ }
+
+    /**
+     * Decode a segment, writing one line per record
+     * @param segmentPath Path to the .tslb segment
+     * @param out Where the text goes
+     * @return The number of records decoded
+     */
+    public static long decode(String segmentPath, Writer out){
+        try(FileChannel channel = FileChannel.open(Paths.get(segmentPath),
+                StandardOpenOption.READ)){
+            MappedByteBuffer buffer =
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.limit() < MappedLogChannel.FILE_HEADER
+                    || buffer.getInt(0) != MappedLogChannel.MAGIC)
+                throw new IOException("Not a TSL binary log segment: " + segmentPath);
+
+            boolean aligned = buffer.getInt(4) >= 2;
+            TimestampEncoder timestamps = new TimestampEncoder();
+            long records = 0;
+            int pos = MappedLogChannel.FILE_HEADER;
+            while(pos + MappedLogChannel.RECORD_HEADER <= buffer.limit()){
+                int length = buffer.getInt(pos);
+                if(length == 0 && aligned){
+                    // Space a writer reserved but never wrote, or the end of the data
+                    pos = nextRecord(buffer, pos);
+                    if(pos < 0) break;
+                    continue;
+                }
+                if(length < MappedLogChannel.RECORD_HEADER
+                        || pos + length > buffer.limit())
+                    break;
+                if(buffer.get(pos + 4) != 0){
+                    int level = buffer.get(pos + 5);
+                    long millis = buffer.getLong(pos + 6) / 1_000_000L;
+                    byte[] payload = new byte[length - MappedLogChannel.RECORD_HEADER];
+                    ByteBuffer dup = buffer.duplicate();
+                    dup.position(pos + MappedLogChannel.RECORD_HEADER);
+                    dup.get(payload);
+
+                    out.write(label(level));
+                    char[] time = timestamps.encode(millis);
+                    out.write(time, 0, time.length);
+                    out.write(new String(payload, StandardCharsets.UTF_8));
+                    out.write(System.lineSeparator());
+                    ++records;
+                }
+                pos += aligned ? MappedLogChannel.align(length) : length;
+            }
+            out.flush();
+            return records;
+        }
+        catch(IOException e){
+            // Not logged through TSL, starting the logger just to decode its output would
+            // leave its thread running
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decode a segment into a list of text lines
+     * @param segmentPath Path to the .tslb segment
+     * @return The decoded lines, in the order they were appended
+     */
+    public static List<String> readLines(String segmentPath){
+        StringWriter sw = new StringWriter();
+        decode(segmentPath, sw);
+        List<String> lines = new ArrayList<>();
+        try(BufferedReader br = new BufferedReader(new StringReader(sw.toString()))){
+            String line;
+            while((line = br.readLine()) != null)
+                lines.add(line);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return lines;
+    }
+
+    /**
+     * Skip a gap of zeros. Records are aligned and their length is never 0, so the first
+     * aligned long that isn't 0 is where the next record starts
+     * @return Where the next record starts, -1 if the rest of the segment is empty
+     */
+    private static int nextRecord(ByteBuffer buffer, int pos){
+        for(; pos + 8 <= buffer.limit(); pos += MappedLogChannel.ALIGNMENT)
+            if(buffer.getLong(pos) != 0) return pos;
+        return -1;
+    }
+
+    private static String label(int level){
+        if(level < 0 || level >= TSL.TAGS.length) return "[???] ";
+        return "[" + TSL.TAGS[level] + "] ";
+    }
+
+    public static void main(String[] args){
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+        for(String path : args)
+            decode(path, out);
+    }
+}
@@ -0,0 +1,75 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the last N log lines in memory, for dumping when something goes wrong:
+ *      MemorySink recent = new MemorySink(10000);
+ *      TSL.get().addSink(recent);
+ *      ...
+ *      catch(Exception e){ recent.dumpTo("crash.log"); }
+ * Only references are kept, writing a line is an array store.
+ */
+public class MemorySink implements LogSink {
+    private final String[] lines;
+    private long written;
+
+    public MemorySink(int capacity){
+        if(capacity < 1)
+            throw new IllegalArgumentException("MemorySink() -- capacity must be > 0");
+        this.lines = new String[capacity];
+    }
+
+    @Override
+    public synchronized void write(String line){
+        lines[(int)(written % lines.length)] = line;
+        ++written;
+    }
+
+    /**
+     * @return The lines still held, oldest first
+     */
+    public synchronized List<String> snapshot(){
+        int held = (int)Math.min(written, lines.length);
+        List<String> copy = new ArrayList<>(held);
+        for(long i = written - held; i < written; ++i)
+            copy.add(lines[(int)(i % lines.length)]);
+        return copy;
+    }
+
+    public void dump(Writer out) throws IOException {
+        String newline = System.lineSeparator();
+        for(String line : snapshot()){
+            out.write(line);
+            out.write(newline);
+        }
+        out.flush();
+    }
+
+    public void dumpTo(String path){
+        try(Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)){
+            dump(out);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException("MemorySink.dumpTo() -- Unable to write " + path, e);
+        }
+    }
+
+    /**
+     * @return Lines written since the sink was created, including the ones overwritten
+     */
+    public synchronized long writtenCount(){
+        return written;
+    }
+}
@@ -58,11 +58,11 @@ public class NetworkUtils {
     public boolean pingHost(String host, int port, int timeout){
         try(Socket sock = new Socket()){
             sock.connect(new InetSocketAddress(host, port), timeout);
-            log.trace(host + " appears to be up.");
+            log.trace("%s appears to be up.", host);
             return true;
         }
         catch(IOException isDown){
-            log.info(host + " appears to be down.");
+            log.info("%s appears to be down.", host);
             return false;
         }
     }
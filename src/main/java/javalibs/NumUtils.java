@@ -8,8 +8,12 @@ package javalibs;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
 
 @SuppressWarnings("WeakerAccess")
 public class NumUtils {
@@ -20,12 +24,9 @@ public class NumUtils {
      * @return The double value, or null if parsing fails
      */
     public static Double getDoubleFromStr(String aNumberIHope) {
-        try {
-            return Double.parseDouble(aNumberIHope);
-        }
-        catch(NumberFormatException e){
+        if(aNumberIHope == null || !isDouble(aNumberIHope, 0, aNumberIHope.length()))
             return null;
-        }
+        return parseDoubleOr(aNumberIHope, 0, aNumberIHope.length(), Double.NaN);
     }
 
     /**
@@ -34,12 +35,285 @@ public class NumUtils {
      * @return The long value, or null if parsing fails
      */
     public static Long getLongFromStr(String aNumberIHope) {
-        try {
-            return Long.parseLong(aNumberIHope);
-        }
-        catch(NumberFormatException e){
+        if(aNumberIHope == null || !isLong(aNumberIHope, 0, aNumberIHope.length()))
             return null;
+        return parseLongOr(aNumberIHope, 0, aNumberIHope.length(), 0L);
+    }
+
+    /*
+     * The parse*Or / is* functions below never throw on bad input, they scan the chars
+     * instead of letting parseInt / parseDouble throw and catching it. On dirty data most
+     * of the cost of the try / catch versions is building the exception's stack trace.
+     * They accept exactly what Integer.parseInt / Long.parseLong / Double.parseDouble
+     * accept, and give the same values.
+     */
+
+    /**
+     * Parse s[start, end) like Integer.parseInt
+     * @return The int, or fallback if it isn't a valid int
+     */
+    public static int parseIntOr(CharSequence s, int start, int end, int fallback) {
+        return (int)parseIntegral(s, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE, fallback);
+    }
+
+    public static int parseIntOr(CharSequence s, int fallback) {
+        return s == null ? fallback : parseIntOr(s, 0, s.length(), fallback);
+    }
+
+    /**
+     * Parse s[start, end) like Long.parseLong
+     * @return The long, or fallback if it isn't a valid long
+     */
+    public static long parseLongOr(CharSequence s, int start, int end, long fallback) {
+        return parseIntegral(s, start, end, Long.MIN_VALUE, Long.MAX_VALUE, fallback);
+    }
+
+    public static long parseLongOr(CharSequence s, long fallback) {
+        return s == null ? fallback : parseLongOr(s, 0, s.length(), fallback);
+    }
+
+    /**
+     * Parse s[start, end) like Double.parseDouble, surrounding whitespace, NaN, Infinity,
+     * hex, and f / d suffixes included. Plain decimals that fit Clinger's fast path are
+     * converted right here, the rest is handed to Double.parseDouble once it's known to be
+     * valid
+     * @param fallback Returned if s isn't a valid double, NaN works as a sentinel unless
+     *                 "NaN" itself is expected in the input
+     */
+    public static double parseDoubleOr(CharSequence s, int start, int end, double fallback) {
+        while(start < end && s.charAt(start) <= ' ') ++start;
+        while(end > start && s.charAt(end - 1) <= ' ') --end;
+        if(start == end) return fallback;
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if(c == '+' || c == '-') {
+            negative = c == '-';
+            if(++i == end) return fallback;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean sawDigit = false;
+        // Anything the loop can't handle exactly goes through the full grammar check
+        boolean simple = true;
+        for(; i < end && isAsciiDigit(c = s.charAt(i)); ++i) {
+            sawDigit = true;
+            if(mantissa == 0 && c == '0') continue;
+            if(++digits > 18) { simple = false; break; }
+            mantissa = mantissa * 10 + (c - '0');
+        }
+        if(simple && i < end && s.charAt(i) == '.') {
+            for(++i; i < end && isAsciiDigit(c = s.charAt(i)); ++i) {
+                sawDigit = true;
+                --exp10;
+                if(mantissa == 0 && c == '0') continue;
+                if(++digits > 18) { simple = false; break; }
+                mantissa = mantissa * 10 + (c - '0');
+            }
+        }
+        if(simple && sawDigit && i < end && (s.charAt(i) | 0x20) == 'e') {
+            ++i;
+            boolean negativeExp = false;
+            if(i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                negativeExp = s.charAt(i) == '-';
+                ++i;
+            }
+            if(i == end || !isAsciiDigit(s.charAt(i))) return fallback;
+            int exp = 0;
+            for(; i < end && isAsciiDigit(c = s.charAt(i)); ++i)
+                if(exp < 100000) exp = exp * 10 + (c - '0');
+            exp10 += negativeExp ? -exp : exp;
+        }
+        if(simple && sawDigit && i == end) {
+            double value = fastPathDouble(mantissa, exp10, negative);
+            if(!Double.isNaN(value)) return value;
+        }
+        if(!isDouble(s, start, end)) return fallback;
+        return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+
+    public static double parseDoubleOr(CharSequence s, double fallback) {
+        return s == null ? fallback : parseDoubleOr(s, 0, s.length(), fallback);
+    }
+
+    /**
+     * @return True if Integer.parseInt would accept s[start, end)
+     */
+    public static boolean isInt(CharSequence s, int start, int end) {
+        return isIntegral(s, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return True if Long.parseLong would accept s[start, end)
+     */
+    public static boolean isLong(CharSequence s, int start, int end) {
+        return isIntegral(s, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return True if Double.parseDouble would accept s[start, end)
+     */
+    public static boolean isDouble(CharSequence s, int start, int end) {
+        while(start < end && s.charAt(start) <= ' ') ++start;
+        while(end > start && s.charAt(end - 1) <= ' ') --end;
+        int i = start;
+        if(i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) ++i;
+        if(i == end) return false;
+        char c = s.charAt(i);
+        if(c == 'N') return regionIs(s, i, end, "NaN");
+        if(c == 'I') return regionIs(s, i, end, "Infinity");
+        if(c == '0' && i + 1 < end && (s.charAt(i + 1) | 0x20) == 'x')
+            return isHexDouble(s, i + 2, end);
+        boolean sawDigit = false;
+        while(i < end && isAsciiDigit(s.charAt(i))) { ++i; sawDigit = true; }
+        if(i < end && s.charAt(i) == '.') {
+            ++i;
+            while(i < end && isAsciiDigit(s.charAt(i))) { ++i; sawDigit = true; }
+        }
+        if(!sawDigit) return false;
+        if(i < end && (s.charAt(i) | 0x20) == 'e') {
+            i = skipSignedDigits(s, i + 1, end);
+            if(i < 0) return false;
+        }
+        return isSuffixEnd(s, i, end);
+    }
+
+    /**
+     * Hex significand after the 0x, then the binary exponent that's required for hex
+     */
+    private static boolean isHexDouble(CharSequence s, int i, int end) {
+        boolean sawDigit = false;
+        while(i < end && Character.digit(s.charAt(i), 16) >= 0 && s.charAt(i) < 128) {
+            ++i;
+            sawDigit = true;
+        }
+        if(i < end && s.charAt(i) == '.') {
+            ++i;
+            while(i < end && Character.digit(s.charAt(i), 16) >= 0 && s.charAt(i) < 128) {
+                ++i;
+                sawDigit = true;
+            }
+        }
+        if(!sawDigit || i == end || (s.charAt(i) | 0x20) != 'p') return false;
+        i = skipSignedDigits(s, i + 1, end);
+        return i >= 0 && isSuffixEnd(s, i, end);
+    }
+
+    /**
+     * @return Index after [+-]digits, -1 if there are no digits
+     */
+    private static int skipSignedDigits(CharSequence s, int i, int end) {
+        if(i < end && (s.charAt(i) == '+' || s.charAt(i) == '-')) ++i;
+        if(i == end || !isAsciiDigit(s.charAt(i))) return -1;
+        while(i < end && isAsciiDigit(s.charAt(i))) ++i;
+        return i;
+    }
+
+    private static boolean isSuffixEnd(CharSequence s, int i, int end) {
+        if(i == end) return true;
+        char c = s.charAt(i);
+        return i + 1 == end && (c == 'f' || c == 'F' || c == 'd' || c == 'D');
+    }
+
+    private static boolean regionIs(CharSequence s, int i, int end, String word) {
+        if(end - i != word.length()) return false;
+        for(int k = 0; k < word.length(); ++k)
+            if(s.charAt(i + k) != word.charAt(k)) return false;
+        return true;
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isIntegral(CharSequence s, int start, int end, long min, long max) {
+        if(s == null || start >= end) return false;
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if(c == '+' || c == '-') {
+            negative = c == '-';
+            if(++i == end) return false;
+        }
+        long limit = negative ? min : -max;
+        long multLimit = limit / 10;
+        long value = 0;
+        for(; i < end; ++i) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if(digit < 0 || value < multLimit) return false;
+            value *= 10;
+            if(value < limit + digit) return false;
+            value -= digit;
+        }
+        return true;
+    }
+
+    /**
+     * Integer.parseInt / Long.parseLong without the exception. Like them, any Unicode
+     * decimal digit is accepted and there's no whitespace trimming
+     * @return The value, or fallback if s[start, end) isn't a number in [min, max]
+     */
+    private static long parseIntegral(CharSequence s, int start, int end, long min, long max,
+                                      long fallback) {
+        if(s == null || start >= end) return fallback;
+        int i = start;
+        boolean negative = false;
+        char c = s.charAt(i);
+        if(c == '+' || c == '-') {
+            negative = c == '-';
+            if(++i == end) return fallback;
         }
+        long limit = negative ? min : -max;
+        long multLimit = limit / 10;
+        // Accumulate negative, the negative range is one bigger
+        long value = 0;
+        for(; i < end; ++i) {
+            int digit = Character.digit(s.charAt(i), 10);
+            if(digit < 0 || value < multLimit) return fallback;
+            value *= 10;
+            if(value < limit + digit) return fallback;
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    // Every power of ten a double holds exactly
+    private static final double[] EXACT_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * Clinger's fast path: if the decimal digits fit in 53 bits and the power of ten is
+     * exact, one multiply or divide gives the correctly rounded double
+     * @param mantissa The decimal digits as an integer, >= 0
+     * @param exp10 Power of ten to scale the digits by
+     * @return mantissa * 10^exp10, or NaN if the fast path doesn't apply and the caller has
+     * to fall back to Double.parseDouble
+     */
+    static double fastPathDouble(long mantissa, int exp10, boolean negative) {
+        if(mantissa < 0 || mantissa > MAX_EXACT_MANTISSA) return Double.NaN;
+        double value;
+        if(mantissa == 0)
+            value = 0.0;
+        else if(exp10 >= 0 && exp10 <= 22)
+            value = mantissa * EXACT_POWERS_OF_TEN[exp10];
+        else if(exp10 < 0 && exp10 >= -22)
+            value = mantissa / EXACT_POWERS_OF_TEN[-exp10];
+        else if(exp10 > 22 && exp10 <= 22 + 15) {
+            // Move the extra powers into the mantissa if it stays exact
+            long scaled = mantissa;
+            for(int i = 22; i < exp10; ++i) {
+                scaled *= 10;
+                if(scaled > MAX_EXACT_MANTISSA) return Double.NaN;
+            }
+            value = scaled * EXACT_POWERS_OF_TEN[22];
+        }
+        else
+            return Double.NaN;
+        return negative ? -value : value;
     }
 
     public static int randomBoundedInclusiveInt(int start, int end) {
@@ -50,20 +324,273 @@ public class NumUtils {
         return ThreadLocalRandom.current().nextDouble(start, end);
     }
 
+    /**
+     * The numbers 0 to exclusiveEnd - 1 in random order. Boxes every element, use
+     * randomPermutation() for large n
+     */
     public static List<Integer> randomizedList0ToExclusiveNWithoutRepeats(int exclusiveEnd) {
-        List<Integer> numList = new ArrayList<>();
-        List<Integer> randList = new ArrayList<>();
-        for(int i = 0; i < exclusiveEnd; ++i) numList.add(i);
-        int end = numList.size() - 1;
-        while(end >= 0) {
-            int rand = end > 0 ? ThreadLocalRandom.current().nextInt(end) : 0;
-            randList.add(numList.get(rand));
-            numList.set(rand, numList.get(end));
-            --end;
-        }
+        int[] perm = randomPermutation(Math.max(0, exclusiveEnd));
+        List<Integer> randList = new ArrayList<>(perm.length);
+        for(int i : perm) randList.add(i);
         return randList;
     }
 
+    /*
+     * The functions below take a SplittableRandom so results can be reproduced from a seed,
+     * the overloads without one use a randomly seeded generator. SplittableRandom isn't
+     * thread safe, give each thread its own with randomGenerators() / split().
+     */
+
+    /**
+     * @return A generator that produces the same sequence every time for the same seed
+     */
+    public static SplittableRandom randomGenerator(long seed) {
+        return new SplittableRandom(seed);
+    }
+
+    /**
+     * Independent generators for parallel work, e.g. one per thread or per chunk. The same
+     * seed and count always give the same generators, so a parallel run is reproducible as
+     * long as each piece of work always uses the same generator
+     */
+    public static SplittableRandom[] randomGenerators(long seed, int count) {
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] generators = new SplittableRandom[count];
+        for(int i = 0; i < count; ++i)
+            generators[i] = root.split();
+        return generators;
+    }
+
+    /**
+     * @return The numbers 0 to n - 1 in random order
+     */
+    public static int[] randomPermutation(int n) {
+        return randomPermutation(n, new SplittableRandom());
+    }
+
+    public static int[] randomPermutation(int n, SplittableRandom rng) {
+        int[] perm = new int[n];
+        // Inside out Fisher-Yates, fills and shuffles in a single pass
+        for(int i = 0; i < n; ++i) {
+            int j = rng.nextInt(i + 1);
+            perm[i] = perm[j];
+            perm[j] = i;
+        }
+        return perm;
+    }
+
+    /**
+     * Fisher-Yates shuffle in place
+     */
+    public static void shuffle(int[] arr) {
+        shuffle(arr, new SplittableRandom());
+    }
+
+    public static void shuffle(int[] arr, SplittableRandom rng) {
+        shuffle(arr, 0, arr.length, rng);
+    }
+
+    /**
+     * Shuffle arr[from, to) in place
+     */
+    public static void shuffle(int[] arr, int from, int to, SplittableRandom rng) {
+        for(int i = to - 1; i > from; --i) {
+            int j = from + rng.nextInt(i - from + 1);
+            int tmp = arr[i];
+            arr[i] = arr[j];
+            arr[j] = tmp;
+        }
+    }
+
+    public static void shuffle(long[] arr) {
+        shuffle(arr, new SplittableRandom());
+    }
+
+    public static void shuffle(long[] arr, SplittableRandom rng) {
+        for(int i = arr.length - 1; i > 0; --i) {
+            int j = rng.nextInt(i + 1);
+            long tmp = arr[i];
+            arr[i] = arr[j];
+            arr[j] = tmp;
+        }
+    }
+
+    public static void shuffle(double[] arr) {
+        shuffle(arr, new SplittableRandom());
+    }
+
+    public static void shuffle(double[] arr, SplittableRandom rng) {
+        for(int i = arr.length - 1; i > 0; --i) {
+            int j = rng.nextInt(i + 1);
+            double tmp = arr[i];
+            arr[i] = arr[j];
+            arr[j] = tmp;
+        }
+    }
+
+    /**
+     * k distinct numbers from 0 to n - 1, in random order, without building all n
+     */
+    public static int[] sampleWithoutReplacement(int n, int k) {
+        return sampleWithoutReplacement(n, k, new SplittableRandom());
+    }
+
+    public static int[] sampleWithoutReplacement(int n, int k, SplittableRandom rng) {
+        if(k < 0 || k > n)
+            throw new IllegalArgumentException("Can't take " + k + " of " + n + " numbers");
+        // Taking a good part of n anyway, a partial shuffle of 0 to n - 1 is cheaper
+        if(k > n / 4) {
+            int[] all = new int[n];
+            for(int i = 0; i < n; ++i) all[i] = i;
+            for(int i = 0; i < k; ++i) {
+                int j = i + rng.nextInt(n - i);
+                int tmp = all[i];
+                all[i] = all[j];
+                all[j] = tmp;
+            }
+            return Arrays.copyOf(all, k);
+        }
+        // Floyd's algorithm, k draws and a set of size k
+        int[] sample = new int[k];
+        int[] seen = new int[Math.max(2, Integer.highestOneBit(k) << 2)];
+        Arrays.fill(seen, -1);
+        int mask = seen.length - 1;
+        int count = 0;
+        for(int j = n - k; j < n; ++j) {
+            int t = rng.nextInt(j + 1);
+            int pick = addIfAbsent(seen, mask, t) ? t : j;
+            if(pick == j) addIfAbsent(seen, mask, j);
+            sample[count++] = pick;
+        }
+        // Floyd picks the set uniformly but not the order
+        shuffle(sample, rng);
+        return sample;
+    }
+
+    /**
+     * Open addressed int set for sampleWithoutReplacement, -1 marks an empty slot
+     * @return True if value wasn't in the set
+     */
+    private static boolean addIfAbsent(int[] table, int mask, int value) {
+        int i = (value * 0x9E3779B9) & mask;
+        while(table[i] != -1) {
+            if(table[i] == value) return false;
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        return true;
+    }
+
+    /**
+     * Reservoir sampling: k items picked uniformly from an iterator of unknown length,
+     * reading it once and holding only k items. Uses Li's Algorithm L, which jumps over the
+     * items that won't be picked instead of drawing a random number for each one
+     * @return The sample, all the items if there are k or fewer
+     */
+    public static <T> List<T> reservoirSample(Iterator<? extends T> items, int k) {
+        return reservoirSample(items, k, new SplittableRandom());
+    }
+
+    public static <T> List<T> reservoirSample(Iterator<? extends T> items, int k,
+                                              SplittableRandom rng) {
+        if(k < 0) throw new IllegalArgumentException("Negative sample size: " + k);
+        List<T> reservoir = new ArrayList<>(k);
+        while(reservoir.size() < k && items.hasNext())
+            reservoir.add(items.next());
+        if(k == 0 || !items.hasNext()) return reservoir;
+        // 1 - nextDouble() is in (0, 1], keeps log() finite
+        double w = Math.exp(Math.log(1 - rng.nextDouble()) / k);
+        while(true) {
+            double skip = Math.floor(Math.log(1 - rng.nextDouble()) / Math.log1p(-w));
+            for(long i = 0; i < skip; ++i) {
+                if(!items.hasNext()) return reservoir;
+                items.next();
+            }
+            if(!items.hasNext()) return reservoir;
+            reservoir.set(rng.nextInt(k), items.next());
+            w *= Math.exp(Math.log(1 - rng.nextDouble()) / k);
+        }
+    }
+
+    /**
+     * Fill arr with random ints in [origin, bound)
+     */
+    public static void fillRandom(int[] arr, int origin, int bound) {
+        fillRandom(arr, origin, bound, new SplittableRandom());
+    }
+
+    public static void fillRandom(int[] arr, int origin, int bound, SplittableRandom rng) {
+        for(int i = 0; i < arr.length; ++i)
+            arr[i] = rng.nextInt(origin, bound);
+    }
+
+    /**
+     * Fill arr with random longs, any value
+     */
+    public static void fillRandom(long[] arr) {
+        fillRandom(arr, new SplittableRandom());
+    }
+
+    public static void fillRandom(long[] arr, SplittableRandom rng) {
+        for(int i = 0; i < arr.length; ++i)
+            arr[i] = rng.nextLong();
+    }
+
+    /**
+     * Fill arr with random doubles in [0, 1)
+     */
+    public static void fillRandom(double[] arr) {
+        fillRandom(arr, new SplittableRandom());
+    }
+
+    public static void fillRandom(double[] arr, SplittableRandom rng) {
+        for(int i = 0; i < arr.length; ++i)
+            arr[i] = rng.nextDouble();
+    }
+
+    /**
+     * Fill arr with random doubles in [origin, bound)
+     */
+    public static void fillRandom(double[] arr, double origin, double bound) {
+        fillRandom(arr, origin, bound, new SplittableRandom());
+    }
+
+    public static void fillRandom(double[] arr, double origin, double bound,
+                                  SplittableRandom rng) {
+        for(int i = 0; i < arr.length; ++i)
+            arr[i] = rng.nextDouble(origin, bound);
+    }
+
+    // Size of the blocks the parallel fills hand out, each block has its own generator
+    private static final int PARALLEL_FILL_BLOCK = 1 << 16;
+
+    /**
+     * fillRandom() across the common ForkJoinPool. The array is split into fixed blocks,
+     * each with its own generator split from seed, so the result is the same for a seed no
+     * matter how many threads do the work
+     */
+    public static void parallelFillRandom(int[] arr, int origin, int bound, long seed) {
+        SplittableRandom[] rngs = randomGenerators(seed, blockCount(arr.length));
+        IntStream.range(0, rngs.length).parallel().forEach(b -> {
+            int end = Math.min(arr.length, (b + 1) * PARALLEL_FILL_BLOCK);
+            for(int i = b * PARALLEL_FILL_BLOCK; i < end; ++i)
+                arr[i] = rngs[b].nextInt(origin, bound);
+        });
+    }
+
+    public static void parallelFillRandom(double[] arr, long seed) {
+        SplittableRandom[] rngs = randomGenerators(seed, blockCount(arr.length));
+        IntStream.range(0, rngs.length).parallel().forEach(b -> {
+            int end = Math.min(arr.length, (b + 1) * PARALLEL_FILL_BLOCK);
+            for(int i = b * PARALLEL_FILL_BLOCK; i < end; ++i)
+                arr[i] = rngs[b].nextDouble();
+        });
+    }
+
+    private static int blockCount(int length) {
+        return (int)((length + (long)PARALLEL_FILL_BLOCK - 1) / PARALLEL_FILL_BLOCK);
+    }
+
     /**
      * Normalize a value to the range [0, 1]
      * @param min The minimum value of the range
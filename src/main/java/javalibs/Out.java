@@ -13,9 +13,25 @@ import java.util.concurrent.TimeUnit;
 @SuppressWarnings({"unused", "SpellCheckingInspection", "WeakerAccess"})
 public class Out {
     private static final long serialVersionUID = 80085L;
+    // Buffer stdout instead of flushing System.out on every line, for tools that print a
+    // lot. Whatever is buffered is written when the buffer fills, on flush(), every
+    // FLUSH_INTERVAL_MS, and at JVM exit. These are read once, set them before Out.get()
+    public static boolean BUFFERED_OUTPUT       = false;
+    // Chars buffered before they're written out
+    public static int BUFFER_SIZE               = 1 << 16;
+    // Longest output sits in the buffer, 0 to only flush when it's full / asked to
+    public static long FLUSH_INTERVAL_MS        = 100;
+    // Encode and write on a separate thread so callers only copy chars
+    public static boolean WRITER_THREAD         = false;
     private static volatile Out _instance;
+    private final String newline = System.lineSeparator();
+    private final BufferedStdout buffer;
 
-    private Out(){ }
+    private Out(){
+        this.buffer = BUFFERED_OUTPUT
+                ? new BufferedStdout(BUFFER_SIZE, FLUSH_INTERVAL_MS, WRITER_THREAD)
+                : null;
+    }
 
     public static Out get(){
         if(_instance == null){
@@ -29,20 +45,37 @@ public class Out {
     }
 
     public void writeln(Object msg){
-        System.out.println(msg);
+        if(buffer == null){
+            System.out.println(msg);
+            return;
+        }
+        buffer.append(String.valueOf(msg), newline);
     }
     public void write(Object msg){
-        System.out.print(msg);
+        if(buffer == null) System.out.print(msg);
+        else buffer.append(String.valueOf(msg));
     }
     public void writef(String format, Object... args){
-        System.out.printf(format, args);
+        if(buffer == null) System.out.printf(format, args);
+        else buffer.append(String.format(format, args));
     }
+    // stderr stays unbuffered, stdout is flushed first so the two stay in order
     public void writeln_err(Object msg){
+        flush();
         System.err.println(msg);
     }
     public void write_err(Object msg){
+        flush();
         System.err.print(msg);
     }
+
+    /**
+     * Write out anything buffered, a no-op unless BUFFERED_OUTPUT is on
+     */
+    public void flush(){
+        if(buffer != null) buffer.flush();
+        else System.out.flush();
+    }
     public String timer_millis(Stopwatch sw){
         return sw.elapsed(TimeUnit.MILLISECONDS) + " milliseconds";
     }
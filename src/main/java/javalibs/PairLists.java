@@ -0,0 +1,34 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+/**
+ * Growth rules shared by the *PairList classes, the same ones ArrayList uses
+ */
+final class PairLists {
+    static final int DEFAULT_CAPACITY = 16;
+    // Arrays this close to Integer.MAX_VALUE can't be allocated on some VMs
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+    private PairLists(){ }
+
+    /**
+     * Grow by half again, or to minCapacity if that's more, never below DEFAULT_CAPACITY.
+     * Past MAX_CAPACITY only as far as minCapacity needs, the VM decides if it fits
+     * @param capacity Current length of the arrays
+     * @param minCapacity Number of pairs that have to fit
+     * @throws OutOfMemoryError If minCapacity overflowed an int
+     */
+    static int newCapacity(int capacity, int minCapacity){
+        if(minCapacity < 0)
+            throw new OutOfMemoryError();
+        int grown = capacity + (capacity >> 1);
+        // Compared by subtraction so a grown that overflowed still counts as too big
+        if(grown - minCapacity < 0) grown = minCapacity;
+        if(grown - MAX_CAPACITY > 0)
+            grown = minCapacity > MAX_CAPACITY ? Integer.MAX_VALUE : MAX_CAPACITY;
+        return Math.max(grown, DEFAULT_CAPACITY);
+    }
+}
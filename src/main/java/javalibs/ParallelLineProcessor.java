@@ -0,0 +1,403 @@
+package javalibs;
+/*
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs a function over every line of a big text file on all cores.
+ *
+ * The file is cut into byte ranges of about chunkBytes, each one extended to just past the
+ * next line break so no line is split between two ranges. Every range is read, decoded and
+ * split into lines by a task on the pool, using a byte / char buffer pair that belongs to
+ * the worker thread and is reused for every range it gets, by any processor. Lines are
+ * split like readLine(): "\n", "\r\n" or a lone "\r". A range has to fit in an array, so
+ * a single line can't be longer than about 2GB.
+ *
+ * Only a few ranges per pool thread are in flight at once, so memory stays bounded however
+ * big the file is. Results come back per range and are merged on the calling thread,
+ * in file order when the caller needs that.
+ *
+ * Text is read as UTF-8, malformed bytes become U+FFFD like they do with lines(). The file
+ * has to be plain text, compressed files can't be split, use FileUtils.forEachLineChunk()
+ * for those.
+ *
+ *      long errors = FileUtils.get().parallelLines(path).reduce(
+ *              () -> new long[1],
+ *              (count, line) -> { if(line.contains("ERROR")) ++count[0]; },
+ *              (a, b) -> { a[0] += b[0]; return a; })[0];
+ */
+@SuppressWarnings({"WeakerAccess", "unused"})
+public class ParallelLineProcessor {
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+    // Ranges in flight per pool thread, enough to keep every thread busy
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+    // Largest range the buffers can hold, arrays this close to Integer.MAX_VALUE can't be
+    // allocated on some VMs
+    private static final int MAX_RANGE_BYTES = Integer.MAX_VALUE - 8;
+    // Buffers bigger than this are dropped once their range is done rather than left on a
+    // pool thread, they only happen for very long lines
+    private static final int MAX_KEPT_BYTES = 4 * DEFAULT_CHUNK_BYTES;
+    private static final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    private final Path file;
+    private final ExecutorService pool;
+    private final int parallelism;
+    private final int chunkBytes;
+    private final TSL log = TSL.get();
+    private volatile Stats lastStats;
+
+    /**
+     * Process on the common ForkJoinPool in DEFAULT_CHUNK_BYTES ranges
+     * @param filePath Path to a plain text file
+     */
+    public ParallelLineProcessor(String filePath){
+        this(filePath, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism(),
+                DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param filePath Path to a plain text file
+     * @param pool Where the ranges are processed, not shut down by this class
+     * @param parallelism Threads in the pool, sets how many ranges are in flight at once
+     * @param chunkBytes About how many bytes go in a range, a range grows to fit a line
+     *                   longer than this, up to about 2GB
+     */
+    public ParallelLineProcessor(String filePath, ExecutorService pool, int parallelism,
+                                 int chunkBytes){
+        if(chunkBytes < 1)
+            throw new IllegalArgumentException("chunkBytes must be at least 1: " + chunkBytes);
+        this.file = Paths.get(filePath);
+        this.pool = pool;
+        this.parallelism = Math.max(1, parallelism);
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Fold every line into a result. Each range gets its own result from newResult, and the
+     * results are combined in file order, so combiner doesn't have to be commutative (list
+     * concatenation works) but does have to be associative
+     * @param newResult Makes an empty result
+     * @param accumulator Adds a line to a result, only ever sees one result at a time
+     * @param combiner Merges the result of the next range into the total so far
+     * @return The combined result, newResult.get() for an empty file
+     * @throws UncheckedIOException If the file can't be read
+     */
+    public <A> A reduce(Supplier<A> newResult, BiConsumer<A, String> accumulator,
+                        BinaryOperator<A> combiner){
+        List<A> total = new ArrayList<>(1);
+        run(chars -> {
+            A result = newResult.get();
+            forEachLine(chars, line -> accumulator.accept(result, line));
+            return result;
+        }, result -> {
+            if(total.isEmpty()) total.add(result);
+            else total.set(0, combiner.apply(total.get(0), result));
+        }, true);
+        return total.isEmpty() ? newResult.get() : total.get(0);
+    }
+
+    /**
+     * Transform every line and hand the results to out on the calling thread
+     * @param mapper Called on the pool, must be thread safe. A null result drops the line
+     * @param out Gets the results one at a time, never from two threads at once
+     * @param ordered If true the results come out in the order of the lines in the file,
+     *                otherwise a range's results come out as soon as it's done
+     * @throws UncheckedIOException If the file can't be read
+     */
+    public <R> void map(Function<String, R> mapper, Consumer<? super R> out, boolean ordered){
+        run(chars -> {
+            List<R> results = new ArrayList<>();
+            forEachLine(chars, line -> {
+                R result = mapper.apply(line);
+                if(result != null) results.add(result);
+            });
+            return results;
+        }, results -> results.forEach(out), ordered);
+    }
+
+    /**
+     * Run action on every line, in no particular order
+     * @param action Called on the pool, must be thread safe
+     * @throws UncheckedIOException If the file can't be read
+     */
+    public void forEach(Consumer<String> action){
+        run(chars -> {
+            forEachLine(chars, action);
+            return Boolean.TRUE;
+        }, done -> { }, false);
+    }
+
+    /**
+     * @return Throughput of the last reduce() / map() / forEach() call, null if there
+     * hasn't been one
+     */
+    public Stats lastStats(){
+        return lastStats;
+    }
+
+    /**
+     * Cut the file into ranges and process them with at most a few in flight, handing each
+     * range's result to sink on this thread, in file order if ordered
+     */
+    private <R> void run(Function<CharBuffer, R> work, Consumer<R> sink, boolean ordered){
+        long start = System.nanoTime();
+        LongAdder lines = new LongAdder();
+        long bytes;
+        long chunks = 0;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            bytes = channel.size();
+            ExecutorCompletionService<R> completion = new ExecutorCompletionService<>(pool);
+            Deque<Future<R>> inFlight = new ArrayDeque<>();
+            int maxInFlight = parallelism * IN_FLIGHT_PER_THREAD;
+            long pos = 0;
+            try{
+                while(pos < bytes || !inFlight.isEmpty()){
+                    while(pos < bytes && inFlight.size() < maxInFlight){
+                        long rangeStart = pos;
+                        long rangeEnd = rangeEnd(channel, pos, bytes);
+                        Callable<R> task = () -> {
+                            Buffers b = buffers.get();
+                            b.lineCount = 0;
+                            try{
+                                R result = work.apply(readRange(channel, rangeStart, rangeEnd));
+                                lines.add(b.lineCount);
+                                return result;
+                            }
+                            finally{
+                                b.trim();
+                            }
+                        };
+                        // Ordered results are taken oldest first, the completion queue
+                        // would only pile up
+                        inFlight.addLast(ordered ? pool.submit(task) : completion.submit(task));
+                        pos = rangeEnd;
+                        ++chunks;
+                    }
+                    Future<R> done = ordered ? inFlight.peekFirst() : completion.take();
+                    R result = done.get();
+                    inFlight.remove(done);
+                    sink.accept(result);
+                }
+            }
+            catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted processing " + file, e);
+            }
+            catch(ExecutionException e){
+                Throwable cause = e.getCause();
+                if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+                if(cause instanceof Error) throw (Error)cause;
+                if(cause instanceof IOException)
+                    throw new UncheckedIOException((IOException)cause);
+                throw new RuntimeException(cause);
+            }
+            finally{
+                for(Future<R> f : inFlight) f.cancel(true);
+            }
+        }
+        catch(IOException e){
+            log.exception(e);
+            throw new UncheckedIOException(e);
+        }
+        Stats stats = new Stats(bytes, lines.sum(), chunks, System.nanoTime() - start);
+        lastStats = stats;
+        log.debug("ParallelLineProcessor: %s -- %s", file, stats);
+    }
+
+    /**
+     * @return Where the range starting at start ends: just past the first line break ('\n',
+     * '\r', or "\r\n") at or after start + chunkBytes - 1, or the end of the file
+     * @throws IOException If there's no line break within MAX_RANGE_BYTES
+     */
+    private long rangeEnd(FileChannel channel, long start, long size) throws IOException {
+        long pos = start + chunkBytes - 1;
+        if(pos >= size) return checkRange(start, size);
+        ByteBuffer probe = buffers.get().probe;
+        while(pos < size){
+            probe.clear();
+            int n = channel.read(probe, pos);
+            if(n <= 0) break;
+            for(int i = 0; i < n; ++i){
+                byte b = probe.get(i);
+                if(b == '\n')
+                    return checkRange(start, pos + i + 1);
+                if(b == '\r'){
+                    // Keep a "\r\n" together, the next range would start with an empty line
+                    long next = pos + i + 1;
+                    if(next < size && byteAt(channel, probe, pos, n, next) == '\n') ++next;
+                    return checkRange(start, next);
+                }
+            }
+            pos += n;
+            checkRange(start, pos);
+        }
+        return checkRange(start, size);
+    }
+
+    /**
+     * @return The byte at pos, from the probe if it's in there
+     */
+    private static byte byteAt(FileChannel channel, ByteBuffer probe, long probePos, int probed,
+                               long pos) throws IOException {
+        if(pos < probePos + probed) return probe.get((int)(pos - probePos));
+        ByteBuffer one = ByteBuffer.allocate(1);
+        return channel.read(one, pos) == 1 ? one.get(0) : -1;
+    }
+
+    /**
+     * @return end, if [start, end) fits in a range
+     */
+    private long checkRange(long start, long end) throws IOException {
+        if(end - start > MAX_RANGE_BYTES)
+            throw new IOException("ParallelLineProcessor -- " + file + " has a line at byte " +
+                    start + " that's longer than a range can hold (" + MAX_RANGE_BYTES +
+                    " bytes)");
+        return end;
+    }
+
+    /**
+     * Read and decode [start, end) into this worker's buffers
+     * @return The decoded chars, valid until the worker's next range
+     */
+    private CharBuffer readRange(FileChannel channel, long start, long end)
+            throws IOException {
+        Buffers b = buffers.get();
+        // rangeEnd() made sure it fits
+        int length = (int)(end - start);
+        ByteBuffer in = b.bytes(length);
+        while(in.hasRemaining()){
+            int n = channel.read(in, start + in.position());
+            if(n < 0) break;
+        }
+        in.flip();
+        CharBuffer out = b.chars(length);
+        b.decoder.reset();
+        b.decoder.decode(in, out, true);
+        b.decoder.flush(out);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Split a decoded range into lines, readLine() style
+     */
+    private void forEachLine(CharBuffer chars, Consumer<String> action){
+        char[] arr = chars.array();
+        int end = chars.arrayOffset() + chars.limit();
+        int lineStart = chars.arrayOffset();
+        long count = 0;
+        for(int i = lineStart; i < end; ++i){
+            char c = arr[i];
+            if(c != '\n' && c != '\r') continue;
+            action.accept(new String(arr, lineStart, i - lineStart));
+            ++count;
+            if(c == '\r' && i + 1 < end && arr[i + 1] == '\n') ++i;
+            lineStart = i + 1;
+        }
+        if(lineStart < end){
+            action.accept(new String(arr, lineStart, end - lineStart));
+            ++count;
+        }
+        buffers.get().lineCount += count;
+    }
+
+    /**
+     * Per worker thread buffers, grown as needed and reused for every range, whichever
+     * processor it's from
+     */
+    private static final class Buffers {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer probe = ByteBuffer.allocate(8192);
+        ByteBuffer bytes = ByteBuffer.allocate(0);
+        CharBuffer chars = CharBuffer.allocate(0);
+        // Lines in the range being processed, for the stats
+        long lineCount;
+
+        ByteBuffer bytes(int length){
+            if(bytes.capacity() < length) bytes = ByteBuffer.allocate(length);
+            bytes.clear();
+            bytes.limit(length);
+            return bytes;
+        }
+
+        CharBuffer chars(int length){
+            // UTF-8 never decodes to more chars than bytes
+            if(chars.capacity() < length) chars = CharBuffer.allocate(length);
+            chars.clear();
+            return chars;
+        }
+
+        /**
+         * Let go of buffers that only grew that big for an unusually long line
+         */
+        void trim(){
+            if(bytes.capacity() > MAX_KEPT_BYTES) bytes = ByteBuffer.allocate(0);
+            if(chars.capacity() > MAX_KEPT_BYTES) chars = CharBuffer.allocate(0);
+        }
+    }
+
+    /**
+     * What a run covered and how fast it went
+     */
+    public static final class Stats {
+        public final long bytes;
+        public final long lines;
+        public final long chunks;
+        public final long elapsedNanos;
+
+        Stats(long bytes, long lines, long chunks, long elapsedNanos){
+            this.bytes = bytes;
+            this.lines = lines;
+            this.chunks = chunks;
+            this.elapsedNanos = Math.max(1, elapsedNanos);
+        }
+
+        public double megabytesPerSecond(){
+            return bytes / (1024.0 * 1024.0) / (elapsedNanos / 1e9);
+        }
+
+        public double linesPerSecond(){
+            return lines / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString(){
+            return String.format(
+                    "%d lines, %d bytes in %d chunks, %d ms (%.1f MB/s, %.0f lines/s)",
+                    lines, bytes, chunks, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    megabytesPerSecond(), linesPerSecond());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import org.apache.commons.compress.compressors.CompressorException;
+import org.apache.commons.compress.compressors.CompressorStreamFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * File writer used by TSL that rolls the file over to a numbered segment once it gets too
+ * big or too old. Rolled segments are compressed on a low priority background thread so
+ * the writer thread only pays for a rename and an open.
+ *
+ * NOTE: Size and age are only checked on flush(). TSL only flushes at line boundaries so
+ * a line is never split across segments, but a segment can go over the size limit by up
+ * to one flush worth of lines. Sizes are the encoded bytes that reached the file.
+ * NOTE: The compression thread is a daemon. A segment that hasn't been compressed when
+ * the JVM exits is left on disk uncompressed (possibly next to a *.part file), the
+ * original is only deleted once the compressed copy has been written and renamed.
+ */
+final class RotatingFileWriter extends Writer {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "TSL-log-compressor");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private final File file;
+    private final long maxBytes;
+    private final long intervalMillis;
+    private final String compression;
+    private Writer out;
+    private CountingStream counter;
+    private long rotateAtMillis;
+
+    /**
+     * @param path Path to the active log file, segments are written next to it
+     * @param append Append to an existing file instead of truncating it
+     * @param maxBytes Rotate once the file is this many bytes, 0 to disable
+     * @param intervalMillis Rotate on wall clock boundaries of this length, 0 to disable
+     * @param compression A CompressorStreamFactory name ("gz", "bzip2"), null for none
+     */
+    RotatingFileWriter(String path, boolean append, long maxBytes, long intervalMillis,
+                       String compression) throws IOException {
+        this.file = new File(path);
+        this.maxBytes = maxBytes;
+        this.intervalMillis = intervalMillis;
+        this.compression = compression;
+        open(append);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        this.out.write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        this.out.write(str, off, len);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        this.out.write(c);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+        if(rotationDue())
+            rotate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    private boolean rotationDue(){
+        // Only exact after a flush, the encoder holds on to the last few KB until then
+        long written = this.counter.count;
+        if(written == 0) return false;
+        if(this.maxBytes > 0 && written >= this.maxBytes) return true;
+        return this.intervalMillis > 0 && System.currentTimeMillis() >= this.rotateAtMillis;
+    }
+
+    private void open(boolean append) throws IOException {
+        this.counter = new CountingStream(new FileOutputStream(this.file, append),
+                append ? this.file.length() : 0);
+        // Default charset, same as FileWriter
+        this.out = new BufferedWriter(new OutputStreamWriter(this.counter), BUFFER_SIZE);
+        if(this.intervalMillis > 0){
+            long now = System.currentTimeMillis();
+            this.rotateAtMillis = now - (now % this.intervalMillis) + this.intervalMillis;
+        }
+    }
+
+    /**
+     * Close the active file, move it to the next free segment name, start a fresh file,
+     * then hand the segment off to be compressed
+     */
+    private void rotate() throws IOException {
+        this.out.close();
+        File segment = nextSegment();
+        try{
+            Files.move(this.file.toPath(), segment.toPath());
+        }
+        catch(IOException e){
+            // Keep logging to the current file rather than losing everything after this
+            open(true);
+            throw e;
+        }
+        open(false);
+        if(this.compression != null)
+            compressor.execute(() -> compress(segment, this.compression));
+    }
+
+    private File nextSegment(){
+        String ext = this.compression == null ? "" : "." + extension(this.compression);
+        for(int i = 1; ; ++i){
+            String name = this.file.getPath() + "." + i;
+            if(!new File(name).exists() && !new File(name + ext).exists())
+                return new File(name);
+        }
+    }
+
+    private static String extension(String compression){
+        if(CompressorStreamFactory.BZIP2.equals(compression)) return "bz2";
+        return compression;
+    }
+
+    private static void compress(File segment, String compression){
+        File target = new File(segment.getPath() + "." + extension(compression));
+        // Compress to a temp name so a half written file never looks like a segment
+        File partial = new File(target.getPath() + ".part");
+        try{
+            try(InputStream in = new BufferedInputStream(new FileInputStream(segment));
+                OutputStream out = new CompressorStreamFactory().createCompressorOutputStream(
+                        compression,
+                        new BufferedOutputStream(new FileOutputStream(partial)))){
+                byte[] buf = new byte[BUFFER_SIZE];
+                int read;
+                while((read = in.read(buf)) != -1)
+                    out.write(buf, 0, read);
+            }
+            Files.move(partial.toPath(), target.toPath());
+        }
+        catch(IOException | CompressorException e){
+            e.printStackTrace();
+            Out.get().writeln_err("*** Unable to compress log segment " + segment);
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            return;
+        }
+        if(!segment.delete())
+            Out.get().writeln_err("*** Unable to delete compressed log segment " + segment);
+    }
+
+    /**
+     * Counts the bytes that go through to the file
+     */
+    private static final class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out, long count){
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            ++this.count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream would write them one at a time
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Sends log lines over TCP, one per '\n' terminated line in UTF-8. Meant for a local
+ * collector. If the connection can't be made or breaks, the lines are dropped and counted
+ * and the connection is retried with a backoff that grows to RETRY_MAX_MS.
+ */
+public class SocketSink extends AsyncSink {
+    public static int CONNECT_TIMEOUT_MS = 1000;
+    public static long RETRY_MAX_MS = 30000;
+
+    private final InetSocketAddress address;
+    private Socket socket;
+    private Writer writer;
+    private long retryAtMillis;
+    private long retryDelayMillis = 100;
+
+    public SocketSink(String host, int port, int capacity, TSL.Overflow policy){
+        super("TSL-socket-" + host + ":" + port, capacity, 1024, policy);
+        this.address = new InetSocketAddress(host, port);
+        start();
+    }
+
+    @Override
+    protected void writeBatch(List<String> lines){
+        if(!connected()){
+            countDropped(lines.size());
+            return;
+        }
+        try{
+            for(String line : lines){
+                writer.write(line);
+                writer.write('\n');
+            }
+            writer.flush();
+        }
+        catch(IOException e){
+            countDropped(lines.size());
+            disconnect();
+        }
+    }
+
+    @Override
+    protected void closeTarget(){
+        disconnect();
+    }
+
+    private boolean connected(){
+        if(socket != null) return true;
+        long now = System.currentTimeMillis();
+        if(now < retryAtMillis) return false;
+        Socket s = new Socket();
+        try{
+            s.connect(address, CONNECT_TIMEOUT_MS);
+            s.setTcpNoDelay(true);
+            writer = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(),
+                    StandardCharsets.UTF_8), 1 << 16);
+            socket = s;
+            retryDelayMillis = 100;
+            return true;
+        }
+        catch(IOException e){
+            try{ s.close(); } catch(IOException ignored){ }
+            retryAtMillis = now + retryDelayMillis;
+            retryDelayMillis = Math.min(RETRY_MAX_MS, retryDelayMillis * 2);
+            return false;
+        }
+    }
+
+    private void disconnect(){
+        if(socket == null) return;
+        try{
+            writer.flush();
+        }
+        catch(IOException ignored){ }
+        try{
+            socket.close();
+        }
+        catch(IOException ignored){ }
+        socket = null;
+        writer = null;
+        retryAtMillis = System.currentTimeMillis() + retryDelayMillis;
+    }
+}
@@ -2,10 +2,29 @@ package javalibs;
 
 
 import java.io.*;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/*
+ * NOTE: Messages are handed to the writer thread by reference, toString() is called on
+ * the writer thread. Don't log an object you're about to mutate.
+ */
 
 /**
  * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
@@ -30,45 +49,189 @@ public class TSL extends Thread{
     private static final int RESULTS    = 6;
     private static final int DOLIUS     = 7;
     private static final int SWARM      = 8;
+    private static final int SHUTDOWN   = -1;
+    // Payload is a List<LogEvent> published in one go by a ThreadLog
+    private static final int BATCH      = -2;
+    private static final int NUM_LEVELS = 9;
+    // Short names for the levels above, indexed by level
+    static final String[] TAGS =
+            {"INF", "WAR", "ERR", "EXP", "TRC", "DBG", "RES", "DOL", "SWM"};
+    // Level names for JSON_OUTPUT, indexed the same way
+    private static final String[] LEVEL_NAMES =
+            {"INFO", "WARN", "ERROR", "EXCEPTION", "TRACE", "DEBUG", "RESULTS", "DOLIUS", "SWARM"};
+    // Max number of events the writer pulls off the ring buffer before looking again
+    private static final int DRAIN_BATCH = 4096;
+    private static final int NEWLINE_BYTES = System.lineSeparator().length();
+
+    /**
+     * What the producer does when the queue / ring buffer is full
+     * BLOCK            -- Wait for space (the original behavior)
+     * DROP_NEWEST      -- Drop the message being logged
+     * DROP_OLDEST      -- Drop the oldest queued message to make room. The ring buffer
+     *                     can't drop from the consumer side so it drops the newest instead
+     * DROP_BELOW_LEVEL -- Drop messages less severe than OVERFLOW_MIN_LEVEL, block for the
+     *                     rest. results / dolius / swarm are never dropped by this policy
+     * SAMPLE           -- Block for 1 in OVERFLOW_SAMPLE_RATE messages, drop the others
+     */
+    public enum Overflow { BLOCK, DROP_NEWEST, DROP_OLDEST, DROP_BELOW_LEVEL, SAMPLE }
+
+    /**
+     * Log message severity, least to most severe
+     */
+    public enum Level { TRACE, DEBUG, INFO, WARN, ERROR }
 
     private static volatile TSL _instance;
     private static String reWriteLogPath = "logs" + File.separator + "tslog.log";
-    public static boolean LOG_TRACE             = true;
-    public static boolean LOG_DEBUG             = true;
-    public static boolean LOG_INFO              = true;
-    public static boolean LOG_WARN              = true;
-    public static boolean LOG_TO_CONSOLE        = true;
+    // Volatile so a change made on one thread is seen by all of them. Named loggers have
+    // their own levels, see setLevel()
+    public static volatile boolean LOG_TRACE            = true;
+    public static volatile boolean LOG_DEBUG            = true;
+    public static volatile boolean LOG_INFO             = true;
+    public static volatile boolean LOG_WARN             = true;
+    public static volatile boolean LOG_TO_CONSOLE       = true;
     // Keep trace messages in file but not on console
-    public static boolean LOG_TRACE_TO_CONSOLE  = false;
+    public static volatile boolean LOG_TRACE_TO_CONSOLE = false;
     // Keep debug messages in file but not on console
-    public static boolean LOG_DEBUG_TO_CONSOLE  = true;
+    public static volatile boolean LOG_DEBUG_TO_CONSOLE = true;
     public static boolean REWRITE_LOG_FILE      = true;
     public static boolean REWRITE_RESULTS       = false;
+    // Use the pre-allocated lock free ring buffer instead of the ArrayBlockingQueue. Must
+    // be set before the first call to TSL.get()
+    public static boolean USE_RING_BUFFER       = false;
+    // Number of ring buffer slots, rounded up to a power of two
+    public static int RING_BUFFER_SIZE          = 1 << 17;
+    // Capacity of the blocking queue when not using the ring buffer
+    public static int QUEUE_SIZE                = 1000000;
+    // Flush the writers once per batch of queued messages instead of after every line
+    public static boolean GROUP_COMMIT          = false;
+    // With GROUP_COMMIT, hold the flush until this many ms have passed since the last
+    // one or FLUSH_BYTES bytes (as UTF-8) are pending, whichever comes first. 0 disables
+    // the check
+    public static long FLUSH_INTERVAL_MS        = 0;
+    public static long FLUSH_BYTES              = 0;
+    public static volatile Overflow OVERFLOW_POLICY  = Overflow.BLOCK;
+    public static volatile Level OVERFLOW_MIN_LEVEL  = Level.WARN;
+    public static volatile int OVERFLOW_SAMPLE_RATE  = 100;
+    // How often the writer logs the "N messages dropped" line while messages are dropped
+    public static long DROP_REPORT_INTERVAL_MS  = 10000;
+    // Roll the log files over once they reach this many bytes on disk and / or on wall
+    // clock boundaries of this many ms. 0 disables. Must be set before the first TSL.get()
+    public static long ROTATE_BYTES             = 0;
+    public static long ROTATE_INTERVAL_MS       = 0;
+    // Compression for rolled segments, "gz" or "bzip2". null leaves them uncompressed
+    public static String ROTATE_COMPRESSION     = "gz";
+    // Append results() / swarm() to memory mapped binary segments (logs/*.tslb) on the
+    // calling thread instead of the text files. Decode with MappedLogReader. Must be set
+    // before the first TSL.get()
+    public static boolean BINARY_RESULTS        = false;
+    public static boolean BINARY_SWARM          = false;
+    public static long BINARY_SEGMENT_BYTES     = 64L << 20;
+    // How long shutDown() / die() wait for the writer thread to finish
+    public static long SHUTDOWN_TIMEOUT_MS      = 5000;
+    // Drain the logger from a JVM shutdown hook. Must be set before the first TSL.get()
+    public static boolean SHUTDOWN_HOOK         = true;
+    // ThreadLog handles publish once they hold this many messages, or once the oldest
+    // one has been buffered for THREAD_LOG_FLUSH_MS
+    public static int THREAD_LOG_BATCH          = 1024;
+    public static long THREAD_LOG_FLUSH_MS      = 250;
+    // Write every channel as JSON lines, one object per message, instead of the text format.
+    // Must be set before the first TSL.get(). The file names don't change
+    public static boolean JSON_OUTPUT           = false;
+    // Lines the console can fall behind by, and what happens after that. The console has
+    // its own thread so it never slows down the log files. Must be set before the first line
+    public static int CONSOLE_BUFFER_SIZE       = 16384;
+    public static Overflow CONSOLE_OVERFLOW     = Overflow.DROP_OLDEST;
 
-    private String SHUTDOWN_REQ;
     private volatile boolean shuttingDown, loggerTerminated;
-    private BlockingQueue<Object> itemsToLog = new ArrayBlockingQueue<>(1000000);
-    @SuppressWarnings("FieldCanBeLocal")
-    private LocalDateTime ldt;
+    private final AtomicBoolean shutdownStarted = new AtomicBoolean(false);
+    private BlockingQueue<LogEvent> itemsToLog;
+    private LogRingBuffer ringBuffer;
+    private PrintWriter logWriter, resultsWriter, doliusWriter, swarmWriter;
+    // Writer thread only: bytes written since the last flush and when that flush was
+    private long pendingBytes;
+    private long lastFlushNanos = System.nanoTime();
+    // Messages dropped by the overflow policy, by level
+    private final AtomicLongArray droppedByLevel = new AtomicLongArray(NUM_LEVELS);
+    private final AtomicLong droppedTotal = new AtomicLong();
+    private final AtomicLong overflowSampler = new AtomicLong();
+    // Writer thread only: what the last drop report covered and when it was written
+    private final long[] reportedByLevel = new long[NUM_LEVELS];
+    private long reportedTotal;
+    private long lastDropReportNanos = System.nanoTime();
+    // Writer thread only
+    private final TimestampEncoder timestamps = new TimestampEncoder();
+    // Writer thread only, reused for every JSON line
+    private final StringBuilder jsonLine = new StringBuilder(256);
+    private char[] jsonChars = new char[256];
     private String dt;
     private Out out;
-    private FileUtils futils;
+    private MappedLogChannel binaryResults, binarySwarm;
+    // Created by the writer thread the first time LOG_TO_CONSOLE is on
+    private ConsoleSink consoleSink;
+    private final List<LogSink> sinks = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadLog> threadLogs = ThreadLocal.withInitial(this::newThreadLog);
+    private final Set<ThreadLog> liveThreadLogs = ConcurrentHashMap.newKeySet();
+    private volatile ScheduledExecutorService threadLogSweeper;
 
     private TSL(){
-        this.SHUTDOWN_REQ = "SHUTDOWN";
+        if(USE_RING_BUFFER)
+            this.ringBuffer = new LogRingBuffer(RING_BUFFER_SIZE);
+        else
+            this.itemsToLog = new ArrayBlockingQueue<>(QUEUE_SIZE);
         this.shuttingDown = false;
         this.loggerTerminated = false;
         this.out = Out.get();
-        this.futils = FileUtils.get();
         LocalDateTime dt = LocalDateTime.now();
         this.dt = dt.toString()
                 .replace("T", "_")
                 .replace(":","_");
+        openBinaryChannels();
+
+        if(SHUTDOWN_HOOK){
+            // The hook drains the logger when the JVM exits, so the writer doesn't need
+            // to hold the JVM open waiting for a shutDown() call that never comes
+            setDaemon(true);
+            try{
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try{
+                        drainAndJoin();
+                    }
+                    catch(InterruptedException ignored){ }
+                }, "TSL-shutdown"));
+            }
+            catch(IllegalStateException e){
+                // Already exiting, too late for a hook
+                setDaemon(false);
+            }
+        }
 
         // Start the logger
         start();
     }
 
+    private void openBinaryChannels(){
+        if(!BINARY_RESULTS && !BINARY_SWARM) return;
+        try{
+            //noinspection ResultOfMethodCallIgnored
+            new File("logs").mkdirs();
+            if(BINARY_RESULTS)
+                binaryResults = new MappedLogChannel("logs/results_" + dt,
+                        BINARY_SEGMENT_BYTES);
+            if(BINARY_SWARM)
+                binarySwarm = new MappedLogChannel("logs/swarmRes_" + dt,
+                        BINARY_SEGMENT_BYTES);
+        }
+        catch(IOException e){
+            e.printStackTrace();
+            out.writeln_err("*** ThreadSafeLogger unable to map binary log, using text");
+        }
+    }
+
+    private void closeBinaryChannels(){
+        if(binaryResults != null) binaryResults.close();
+        if(binarySwarm != null) binarySwarm.close();
+    }
+
     /**
      * Get reference to the logger
      * @return A reference to the logger
@@ -84,117 +247,37 @@ public class TSL extends Thread{
         return _instance;
     }
 
-    @SuppressWarnings("ConstantConditions")
     @Override
     public void run(){
-        this.futils.checkAndCreateDir("logs");
-        PrintWriter logWriter = null;
-        PrintWriter resultsWriter = null;
-        PrintWriter doliusWriter = null;
-        PrintWriter swarmWriter = null;
-        PrintWriter inUseWriter = null;
+        // NOTE: FileUtils holds a TSL reference, grabbing it in the constructor recurses
+        // forever. By the time the writer thread gets here the instance has been
+        // published so FileUtils.get() -> TSL.get() just returns it.
+        FileUtils.get().checkAndCreateDir("logs");
         try{
-            String item;
             try{
-                if(!REWRITE_LOG_FILE) {
-                    logWriter = new PrintWriter(
-                            new BufferedWriter(
-                                new FileWriter(
-                                    "logs/tslogs_" + dt + ".txt", true
-                                )
-                            )
-                    );
-                }
-                else{
-                    logWriter = new PrintWriter(
-                            new BufferedWriter(
-                                    new FileWriter(reWriteLogPath)));
-                }
-                if(!REWRITE_RESULTS) {
-                    resultsWriter = new PrintWriter(
-                            new BufferedWriter(
-                                new FileWriter(
-                                    "logs/results_" + dt + ".txt", true
-                                )
-                            )
-                    );
-                }
-                else {
-                    resultsWriter = new PrintWriter(
-                            new BufferedWriter(
-                                    new FileWriter("results/results.txt")));
-                }
-                doliusWriter = new PrintWriter(
-                        new BufferedWriter(
-                            new FileWriter(
-                                "logs/dolius_" + dt + ".txt", true
-                            )
-                        )
-                );
-                swarmWriter = new PrintWriter(
-                        new BufferedWriter(
-                                new FileWriter(
-                                        "logs/swarmRes_" + dt + ".txt", true
-                                )
-                        )
-                );
-
+                if(!REWRITE_LOG_FILE)
+                    logWriter = openWriter("logs/tslogs_" + dt + ".txt", true);
+                else
+                    logWriter = openWriter(reWriteLogPath, false);
+                if(!REWRITE_RESULTS)
+                    resultsWriter = openWriter("logs/results_" + dt + ".txt", true);
+                else
+                    resultsWriter = openWriter("results/results.txt", false);
+                doliusWriter = openWriter("logs/dolius_" + dt + ".txt", true);
+                swarmWriter = openWriter("logs/swarmRes_" + dt + ".txt", true);
             }
             catch(IOException e){
                 e.printStackTrace();
                 out.writeln_err("*** ThreadSafeLogger IOException");
             }
 
-            String label;
-            while(!(item = (String)itemsToLog.take()).equals(SHUTDOWN_REQ)){
-
-                int numFlag = Character.getNumericValue(item.charAt(0));
-
-                switch(numFlag){
-                    case TRACE: label = "[TRC] ";
-                        // Need to deal with skipping console logging if false when
-                        // message is a trace message. In these cases set log to console
-                        // to false as a temporary measure and reset it at end of function
-                                inUseWriter = logWriter;
-                                break;
-                    case DEBUG: label = "[DBG] ";
-                                inUseWriter = logWriter;
-                                break;
-                    case INFO:  label = "[INF] ";
-                                inUseWriter = logWriter;
-                                break;
-                    case WARN:  label = "[WAR] ";
-                                inUseWriter = logWriter;
-                                break;
-                    case ERROR: label = "[ERR] ";
-                                inUseWriter = logWriter;
-                                break;
-                    case RESULTS: label = "[RES] ";
-                                inUseWriter = resultsWriter;
-                                break;
-                    case DOLIUS: label = "[DOL] ";
-                                 inUseWriter = doliusWriter;
-                                 break;
-                    case SWARM: label = "[SWM] ";
-                                inUseWriter = swarmWriter;
-                                break;
-                    default:
-                                label = "[EXP] ";
-                                inUseWriter = logWriter;
-                }
-
-                // Split the init lable off the string
-                String[] splitItem = item.split(" ", 2);
-
-                StringBuilder sb = new StringBuilder();
-                sb.append(label);
-                sb.append(time_str());
-                sb.append(splitItem[1]);
-                inUseWriter.println(sb.toString());
-                inUseWriter.flush();
-                if(LOG_TO_CONSOLE)
-                    this.out.writeln(sb.toString());
-            }
+            if(ringBuffer != null)
+                drainRingBuffer();
+            else if(GROUP_COMMIT)
+                drainQueue();
+            else
+                //noinspection StatementWithEmptyBody
+                while(write(itemsToLog.take()));
         }
         catch(InterruptedException e){
             e.printStackTrace();
@@ -202,60 +285,657 @@ public class TSL extends Thread{
         }
         finally{
             loggerTerminated = true;
+            if(ringBuffer != null)
+                ringBuffer.close();
             if(logWriter != null)
                 logWriter.close();
             if(resultsWriter != null)
                 resultsWriter.close();
-            if(inUseWriter != null)
-                inUseWriter.close();
+            if(doliusWriter != null)
+                doliusWriter.close();
+            if(swarmWriter != null)
+                swarmWriter.close();
+            if(consoleSink != null)
+                consoleSink.close();
+            for(LogSink sink : sinks)
+                sink.close();
         }
     }
 
     /**
-     * Another horrible addition but I need swarm separate from results for identifying
+     * Open one of the log files, wrapped for rotation if ROTATE_BYTES or
+     * ROTATE_INTERVAL_MS is set
      */
-    public void swarm(Object str){
-        if(shuttingDown || loggerTerminated) return;
-        try {
-            itemsToLog.put(SWARM + " " + str);
+    private PrintWriter openWriter(String path, boolean append) throws IOException {
+        if(ROTATE_BYTES > 0 || ROTATE_INTERVAL_MS > 0)
+            return new PrintWriter(new RotatingFileWriter(
+                    path, append, ROTATE_BYTES, ROTATE_INTERVAL_MS, ROTATE_COMPRESSION));
+        return new PrintWriter(new BufferedWriter(new FileWriter(path, append)));
+    }
+
+    /**
+     * Writer thread loop when running on the ring buffer. Pull events off in batches,
+     * backing off while the buffer is empty
+     */
+    private void drainRingBuffer() throws InterruptedException {
+        LogRingBuffer.Handler handler = this::write;
+        int idle = 0;
+        while(true){
+            int handled = ringBuffer.drain(handler, DRAIN_BATCH);
+            if(handled < 0) return;
+            if(handled > 0){
+                idle = 0;
+                endOfBatch();
+            }
+            else{
+                if(Thread.interrupted()) throw new InterruptedException();
+                if(pendingBytes > 0 && flushWaitMillis() == 0)
+                    flushWriters();
+                idle = LogRingBuffer.backoff(idle);
+            }
         }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.swarm() -- " +
-                    "Unexpected interruption");
+    }
+
+    /**
+     * Writer thread loop for GROUP_COMMIT on the blocking queue. Take everything that's
+     * available with drainTo, write it as one batch, then decide whether to flush
+     */
+    private void drainQueue() throws InterruptedException {
+        List<LogEvent> batch = new ArrayList<>(DRAIN_BATCH);
+        while(true){
+            LogEvent first;
+            if(pendingBytes > 0)
+                first = itemsToLog.poll(flushWaitMillis(), TimeUnit.MILLISECONDS);
+            else
+                first = itemsToLog.take();
+            if(first == null){
+                // Nothing new showed up before the flush deadline
+                flushWriters();
+                continue;
+            }
+            batch.add(first);
+            itemsToLog.drainTo(batch, DRAIN_BATCH - 1);
+            for(LogEvent event : batch)
+                if(!write(event)) return;
+            batch.clear();
+            endOfBatch();
         }
     }
 
     /**
-     * This is a horrible addition but I need to get results into a separate file
+     * Called by the writer thread after each batch when GROUP_COMMIT is on. Flushes right
+     * away unless a time / size threshold has been configured and not yet reached
      */
-    public void results(Object str){
-        if(shuttingDown || loggerTerminated) return;
+    private void endOfBatch(){
+        if(!GROUP_COMMIT || pendingBytes == 0) return;
+        boolean thresholds = FLUSH_INTERVAL_MS > 0 || FLUSH_BYTES > 0;
+        if(!thresholds
+                || (FLUSH_BYTES > 0 && pendingBytes >= FLUSH_BYTES)
+                || (FLUSH_INTERVAL_MS > 0 && flushWaitMillis() == 0))
+            flushWriters();
+    }
+
+    /**
+     * @return ms until the pending data has to be flushed, 0 if it's due now
+     */
+    private long flushWaitMillis(){
+        if(FLUSH_INTERVAL_MS <= 0) return 0;
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastFlushNanos);
+        return Math.max(0, FLUSH_INTERVAL_MS - elapsed);
+    }
+
+    private void flushWriters(){
+        if(logWriter != null) logWriter.flush();
+        if(resultsWriter != null) resultsWriter.flush();
+        if(doliusWriter != null) doliusWriter.flush();
+        if(swarmWriter != null) swarmWriter.flush();
+        pendingBytes = 0;
+        lastFlushNanos = System.nanoTime();
+    }
+
+    /**
+     * Write a single event to the correct writer
+     * @return False if the event was the shutdown request
+     */
+    private boolean write(LogEvent event){
+        if(droppedTotal.get() != reportedTotal)
+            reportDrops(event.level == SHUTDOWN);
+        if(event.level == BATCH){
+            for(LogEvent batched : batchOf(event.payload))
+                write(batched);
+            return true;
+        }
+        PrintWriter inUseWriter;
+        String label;
+        String channel = "log";
+        switch(event.level){
+            case SHUTDOWN:
+                        return false;
+            case TRACE: label = "[TRC] ";
+                        inUseWriter = logWriter;
+                        break;
+            case DEBUG: label = "[DBG] ";
+                        inUseWriter = logWriter;
+                        break;
+            case INFO:  label = "[INF] ";
+                        inUseWriter = logWriter;
+                        break;
+            case WARN:  label = "[WAR] ";
+                        inUseWriter = logWriter;
+                        break;
+            case ERROR: label = "[ERR] ";
+                        inUseWriter = logWriter;
+                        break;
+            case RESULTS: label = "[RES] ";
+                        inUseWriter = resultsWriter;
+                        channel = "results";
+                        break;
+            case DOLIUS: label = "[DOL] ";
+                         inUseWriter = doliusWriter;
+                         channel = "dolius";
+                         break;
+            case SWARM: label = "[SWM] ";
+                        inUseWriter = swarmWriter;
+                        channel = "swarm";
+                        break;
+            default:
+                        label = "[EXP] ";
+                        inUseWriter = logWriter;
+        }
+
+        String msg;
         try{
-            itemsToLog.put(RESULTS + " " + str);
+            msg = render(event);
         }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.results() -- " +
-                    "Unexpected interruption");
+        catch(RuntimeException e){
+            // A payload's toString() threw, one bad message mustn't stop the writer
+            msg = "[render failed: " + e + "]";
+        }
+        if(msg == null) return true;
+        if(JSON_OUTPUT){
+            writeJson(inUseWriter, event, channel, msg);
+            return true;
+        }
+        if(event.context != null)
+            msg = msg + contextText(event.context);
+        if(event.logger != null)
+            msg = event.logger.prefix + msg;
+        if(event.site != null)
+            msg = event.site.prefix() + msg;
+
+        // Write the pieces straight through, no need to build the whole line for the file
+        char[] time = timestamps.encode(event.timestamp);
+        inUseWriter.write(label);
+        inUseWriter.write(time, 0, time.length);
+        inUseWriter.write(msg);
+        inUseWriter.println();
+        if(GROUP_COMMIT)
+            pendingBytes += label.length() + time.length + utf8Length(msg) + NEWLINE_BYTES;
+        else
+            inUseWriter.flush();
+        if(LOG_TO_CONSOLE || !sinks.isEmpty()){
+            StringBuilder sb = new StringBuilder(label.length() + time.length + msg.length());
+            sb.append(label);
+            sb.append(time);
+            sb.append(msg);
+            toSinks(sb.toString());
         }
+        return true;
     }
 
     /**
-     * More horrible additons
+     * @return Bytes s takes as UTF-8, for FLUSH_BYTES. The label and timestamp are ASCII
      */
-    public void dolius(Object str){
-        if(shuttingDown || loggerTerminated) return;
+    private static int utf8Length(CharSequence s){
+        int bytes = 0;
+        for(int i = 0, n = s.length(); i < n; ++i){
+            char c = s.charAt(i);
+            if(c < 0x80) ++bytes;
+            else if(c < 0x800) bytes += 2;
+            // A surrogate pair is 4 bytes, 2 for each half
+            else if(Character.isSurrogate(c)) bytes += 2;
+            else bytes += 3;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writer thread: pass a finished line to the console and any added sinks. None of
+     * them block, the console sink has its own buffer and thread
+     */
+    private void toSinks(String line){
+        if(LOG_TO_CONSOLE){
+            if(consoleSink == null)
+                consoleSink = new ConsoleSink(CONSOLE_BUFFER_SIZE, CONSOLE_OVERFLOW);
+            consoleSink.write(line);
+        }
+        for(LogSink sink : sinks)
+            sink.write(line);
+    }
+
+    /**
+     * Writer thread, JSON_OUTPUT: stream the event into the reused builder and write it
+     * out in one go. A String is only made for the console / sinks
+     */
+    private void writeJson(PrintWriter inUseWriter, LogEvent event, String channel, String msg){
+        StringBuilder sb = jsonLine;
+        sb.setLength(0);
+        JsonLineEncoder.encode(sb, event.timestamp, LEVEL_NAMES[event.level], event.thread,
+                channel, event.logger == null ? null : event.logger.name, event.site, msg,
+                event.context);
+        int len = sb.length();
+        if(jsonChars.length < len)
+            jsonChars = new char[Math.max(len, jsonChars.length * 2)];
+        sb.getChars(0, len, jsonChars, 0);
+        inUseWriter.write(jsonChars, 0, len);
+        inUseWriter.println();
+        if(GROUP_COMMIT)
+            pendingBytes += utf8Length(sb) + NEWLINE_BYTES;
+        else
+            inUseWriter.flush();
+        if(LOG_TO_CONSOLE || !sinks.isEmpty())
+            toSinks(sb.toString());
+        // Don't let one huge message pin a huge buffer for the life of the logger
+        if(sb.capacity() > 1 << 16){
+            sb.setLength(0);
+            sb.trimToSize();
+            jsonChars = new char[256];
+        }
+    }
+
+    /**
+     * Text format for the with() context: " {key=value, key2=value2}"
+     */
+    private static String contextText(Object[] context){
+        StringBuilder sb = new StringBuilder(" {");
+        for(int i = 0; i < context.length; i += 2){
+            if(i > 0) sb.append(", ");
+            sb.append(context[i]).append('=');
+            sb.append(i + 1 < context.length ? context[i + 1] : null);
+        }
+        return sb.append('}').toString();
+    }
+
+    private void enqueue(int level, Object payload, String caller){
+        enqueue(level, payload, null, null, null, caller);
+    }
+
+    private void enqueue(int level, Object payload, Object[] args, String caller){
+        enqueue(level, payload, args, null, null, caller);
+    }
+
+    private void enqueue(int level, Object payload, Object[] args, Object[] context,
+                         CallSite site, String caller){
+        enqueue(level, payload, args, context, site, null, caller);
+    }
+
+    /**
+     * Writer thread: turn the payload into the message text. Format strings and
+     * Suppliers are only evaluated here, and only if their level is still enabled
+     * @return The message, null if the level was switched off after it was queued
+     */
+    private String render(LogEvent event){
+        return render(event.level, event.payload, event.args, event.logger);
+    }
+
+    private String render(int level, Object payload, Object[] args, NamedLogger logger){
+        boolean lazy = args != null || payload instanceof Supplier;
+        if(!lazy)
+            return String.valueOf(payload);
+        if(!levelEnabled(level, logger))
+            return null;
+        if(args == null){
+            try{
+                return String.valueOf(((Supplier<?>)payload).get());
+            }
+            catch(RuntimeException e){
+                return "(supplier failed: " + e + ")";
+            }
+        }
+        try{
+            return String.format(String.valueOf(payload), args);
+        }
+        catch(IllegalFormatException e){
+            return payload + " " + Arrays.toString(args) +
+                    " (bad format: " + e.getMessage() + ")";
+        }
+        catch(RuntimeException e){
+            // An argument's toString() / formatTo() threw, Arrays.toString() would too
+            return payload + " (bad format: " + e + ")";
+        }
+    }
+
+    /**
+     * Messages from a NamedLogger answer to that logger's level, not the global flags
+     */
+    private static boolean levelEnabled(int level, NamedLogger logger){
+        if(logger != null)
+            return logger.enabled(severity(level));
+        return levelEnabled(level);
+    }
+
+    private static boolean levelEnabled(int level){
+        switch(level){
+            case TRACE: return LOG_TRACE;
+            case DEBUG: return LOG_DEBUG;
+            case INFO:  return LOG_INFO;
+            case WARN:  return LOG_WARN;
+            default:    return true;
+        }
+    }
+
+    /**
+     * Hand an event to the writer thread. results / swarm go straight to their binary
+     * channel when one is open, formatted on the calling thread since there's no writer
+     * @param args Format args, null if payload is the message itself
+     * @param context Key / value pairs from with(), null if there are none
+     * @param site Where the message was logged from, null if it wasn't captured
+     * @param logger The NamedLogger it came from, null for everything else
+     * @param caller Name of the public function, only used in the exception message
+     */
+    private void enqueue(int level, Object payload, Object[] args, Object[] context,
+                         CallSite site, NamedLogger logger, String caller){
+        if(level == RESULTS && binaryResults != null){
+            binaryResults.append(level, binaryText(level, payload, args, context, logger));
+            return;
+        }
+        if(level == SWARM && binarySwarm != null){
+            binarySwarm.append(level, binaryText(level, payload, args, context, logger));
+            return;
+        }
+        if(ringBuffer != null){
+            long pos = ringBuffer.tryClaim();
+            if(pos < 0){
+                if(dropOnOverflow(level, payload)) return;
+                pos = ringBuffer.claim();
+                if(pos < 0){
+                    // The writer thread is gone, nothing would ever write it
+                    countDrop(level, payload);
+                    return;
+                }
+            }
+            ringBuffer.slotAt(pos).set(level, payload, args, context, site, logger);
+            ringBuffer.commit(pos);
+            return;
+        }
+        // The queued event is written later, take the text now so it's what the payload
+        // said at the time of the call, and so its toString() runs on the caller's thread
+        if(level != BATCH && args == null && !(payload instanceof Supplier)
+                && !(payload instanceof String))
+            payload = String.valueOf(payload);
+        LogEvent event = new LogEvent(level, payload, args, context);
+        event.site = site;
+        event.logger = logger;
+        if(itemsToLog.offer(event)) return;
         try{
-            itemsToLog.put(DOLIUS + " " + str);
+            if(OVERFLOW_POLICY == Overflow.DROP_OLDEST)
+                replaceOldest(event);
+            else if(!dropOnOverflow(level, payload))
+                itemsToLog.put(event);
         }
         catch(InterruptedException e){
             Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.dolius() -- " +
+            throw new RuntimeException("ThreadSafeLogger." + caller + "() -- " +
                     "Unexpected interruption");
         }
     }
 
+    private String binaryText(int level, Object payload, Object[] args, Object[] context,
+                              NamedLogger logger){
+        String msg = render(level, payload, args, logger);
+        if(logger != null) msg = logger.prefix + msg;
+        return context == null ? msg : msg + contextText(context);
+    }
+
+    /**
+     * Apply the overflow policy to a message that didn't fit
+     * @return True if the message was dropped, false if the caller should block
+     */
+    private boolean dropOnOverflow(int level, Object payload){
+        boolean drop;
+        switch(OVERFLOW_POLICY){
+            case DROP_NEWEST:
+            case DROP_OLDEST:
+                drop = true;
+                break;
+            case DROP_BELOW_LEVEL:
+                drop = severity(level) < OVERFLOW_MIN_LEVEL.ordinal();
+                break;
+            case SAMPLE:
+                drop = overflowSampler.incrementAndGet() %
+                        Math.max(1, OVERFLOW_SAMPLE_RATE) != 0;
+                break;
+            default:
+                drop = false;
+        }
+        if(drop) countDrop(level, payload);
+        return drop;
+    }
+
+    /**
+     * DROP_OLDEST for the blocking queue: evict from the head until the new event fits.
+     * Gives up and drops the new event if other producers keep taking the freed slot
+     */
+    private void replaceOldest(LogEvent event) throws InterruptedException {
+        for(int attempt = 0; attempt < 8; ++attempt){
+            LogEvent oldest = itemsToLog.poll();
+            if(oldest != null){
+                if(oldest.level == SHUTDOWN){
+                    // Never lose the shutdown request, it goes back on the end
+                    itemsToLog.put(oldest);
+                    break;
+                }
+                countDrop(oldest.level, oldest.payload);
+            }
+            if(itemsToLog.offer(event)) return;
+        }
+        countDrop(event.level, event.payload);
+    }
+
+    private void countDrop(int level, Object payload){
+        if(level == BATCH){
+            for(LogEvent batched : batchOf(payload))
+                countDrop(batched.level, null);
+            return;
+        }
+        droppedByLevel.incrementAndGet(level);
+        droppedTotal.incrementAndGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<LogEvent> batchOf(Object payload){
+        return (List<LogEvent>)payload;
+    }
+
+    /**
+     * Map the internal level ints onto Level.ordinal(). The results, dolius, and swarm
+     * channels are data, not chatter, so they rank with errors
+     */
+    private static int severity(int level){
+        switch(level){
+            case TRACE: return Level.TRACE.ordinal();
+            case DEBUG: return Level.DEBUG.ordinal();
+            case INFO:  return Level.INFO.ordinal();
+            case WARN:  return Level.WARN.ordinal();
+            default:    return Level.ERROR.ordinal();
+        }
+    }
+
+    /**
+     * Writer thread: log how many messages the overflow policy dropped since the last
+     * report, at most once per DROP_REPORT_INTERVAL_MS unless forced
+     */
+    private void reportDrops(boolean force){
+        long now = System.nanoTime();
+        if(!force && TimeUnit.NANOSECONDS.toMillis(now - lastDropReportNanos)
+                < DROP_REPORT_INTERVAL_MS)
+            return;
+        StringBuilder levels = new StringBuilder();
+        long dropped = 0;
+        for(int i = 0; i < NUM_LEVELS; ++i){
+            long count = droppedByLevel.get(i) - reportedByLevel[i];
+            if(count == 0) continue;
+            if(levels.length() > 0) levels.append(", ");
+            levels.append(TAGS[i]).append('=').append(count);
+            reportedByLevel[i] += count;
+            dropped += count;
+        }
+        reportedTotal += dropped;
+        StringBuilder sb = new StringBuilder();
+        sb.append(dropped).append(" messages dropped (").append(levels)
+                .append(") -- overflow policy ").append(OVERFLOW_POLICY);
+        lastDropReportNanos = now;
+        write(new LogEvent(WARN, sb.toString()));
+    }
+
+    /**
+     * @return Total number of messages dropped by the overflow policy so far
+     */
+    public long droppedCount(){
+        return droppedTotal.get();
+    }
+
+    /**
+     * Queue the shutdown request behind everything already waiting to be written
+     * @return False if there was no room for it within the timeout
+     */
+    private boolean putShutdownRequest(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        if(ringBuffer != null){
+            long pos;
+            int attempt = 0;
+            while((pos = ringBuffer.tryClaim()) < 0){
+                if(System.nanoTime() - deadline >= 0 || loggerTerminated) return false;
+                if(Thread.interrupted()) throw new InterruptedException();
+                attempt = LogRingBuffer.backoff(attempt);
+            }
+            ringBuffer.slotAt(pos).set(SHUTDOWN, null, null, null, null, null);
+            ringBuffer.commit(pos);
+            return true;
+        }
+        return itemsToLog.offer(new LogEvent(SHUTDOWN, null), timeoutMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The shutdown handshake behind shutDown(), die(), and the shutdown hook. Stop taking
+     * new messages, publish the ThreadLog buffers, queue the shutdown request behind
+     * everything else, then wait (up to SHUTDOWN_TIMEOUT_MS) for the writer thread to
+     * write it all out and exit. Only the first caller does the work, later callers just
+     * wait for the writer
+     * @return The number of messages still unwritten when we stopped waiting
+     */
+    private int drainAndJoin() throws InterruptedException {
+        boolean first = shutdownStarted.compareAndSet(false, true);
+        if(first){
+            shuttingDown = true;
+            flushThreadLogs();
+            closeBinaryChannels();
+            if(!loggerTerminated && !putShutdownRequest(SHUTDOWN_TIMEOUT_MS)){
+                int unwritten = pendingCount();
+                out.writeln_err("*** ThreadSafeLogger unable to queue shutdown, " +
+                        unwritten + " messages unwritten");
+                return unwritten;
+            }
+        }
+        if(Thread.currentThread() != this)
+            join(SHUTDOWN_TIMEOUT_MS);
+        if(!isAlive()) return 0;
+        int unwritten = pendingCount();
+        if(first)
+            out.writeln_err("*** ThreadSafeLogger shutdown timed out after " +
+                    SHUTDOWN_TIMEOUT_MS + "ms, " + unwritten + " messages unwritten");
+        return unwritten;
+    }
+
+    /**
+     * @return Approximate number of messages waiting for the writer thread
+     */
+    public int pendingCount(){
+        return ringBuffer != null ? ringBuffer.size() : itemsToLog.size();
+    }
+
+    /**
+     * Another horrible addition but I need swarm separate from results for identifying
+     */
+    public void swarm(Object str){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(SWARM, str, "swarm");
+    }
+
+    /**
+     * Swarm results, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void swarm(String fmt, Object... args){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(SWARM, fmt, args, "swarm");
+    }
+
+    /**
+     * Swarm results, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void swarm(Supplier<String> msg){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(SWARM, msg, "swarm");
+    }
+
+    /**
+     * This is a horrible addition but I need to get results into a separate file
+     */
+    public void results(Object str){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(RESULTS, str, "results");
+    }
+
+    /**
+     * Results, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void results(String fmt, Object... args){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(RESULTS, fmt, args, "results");
+    }
+
+    /**
+     * Results, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void results(Supplier<String> msg){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(RESULTS, msg, "results");
+    }
+
+    /**
+     * More horrible additons
+     */
+    public void dolius(Object str){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(DOLIUS, str, "dolius");
+    }
+
+    /**
+     * Dolius, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void dolius(String fmt, Object... args){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(DOLIUS, fmt, args, "dolius");
+    }
+
+    /**
+     * Dolius, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void dolius(Supplier<String> msg){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(DOLIUS, msg, "dolius");
+    }
+
     /**
      * javalibs.Log info
      * @param str The log message
@@ -263,14 +943,26 @@ public class TSL extends Thread{
     public void info(Object str){
         if(!LOG_INFO || shuttingDown || loggerTerminated)
             return;
-        try{
-            itemsToLog.put(INFO + " " + str);
-        }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.info() -- " +
-                    "Unexpected interruption");
-        }
+        enqueue(INFO, str, "info");
+    }
+
+    /**
+     * Log info, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void info(String fmt, Object... args){
+        if(!LOG_INFO || shuttingDown || loggerTerminated) return;
+        enqueue(INFO, fmt, args, "info");
+    }
+
+    /**
+     * Log info, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void info(Supplier<String> msg){
+        if(!LOG_INFO || shuttingDown || loggerTerminated) return;
+        enqueue(INFO, msg, "info");
     }
 
     /**
@@ -280,14 +972,26 @@ public class TSL extends Thread{
     public void warn(Object str){
         if(!LOG_WARN || shuttingDown || loggerTerminated)
             return;
-        try{
-            itemsToLog.put(WARN + " " + str);
-        }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.warn() -- " +
-                    "Unexpected interruption");
-        }
+        enqueue(WARN, str, "warn");
+    }
+
+    /**
+     * Log warnings, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void warn(String fmt, Object... args){
+        if(!LOG_WARN || shuttingDown || loggerTerminated) return;
+        enqueue(WARN, fmt, args, "warn");
+    }
+
+    /**
+     * Log warnings, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void warn(Supplier<String> msg){
+        if(!LOG_WARN || shuttingDown || loggerTerminated) return;
+        enqueue(WARN, msg, "warn");
     }
 
     /**
@@ -297,14 +1001,26 @@ public class TSL extends Thread{
     public void err(Object str){
         if(shuttingDown || loggerTerminated)
             return;
-        try{
-            itemsToLog.put(ERROR + " " + str);
-        }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.err() -- " +
-                    "Unexpected interruption");
-        }
+        enqueue(ERROR, str, "err");
+    }
+
+    /**
+     * Log errors, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void err(String fmt, Object... args){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(ERROR, fmt, args, "err");
+    }
+
+    /**
+     * Log errors, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void err(Supplier<String> msg){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(ERROR, msg, "err");
     }
 
     /**
@@ -314,14 +1030,26 @@ public class TSL extends Thread{
     public void trace(Object str){
         if(!LOG_TRACE || shuttingDown || loggerTerminated)
             return;
-        try{
-            itemsToLog.put(TRACE + " " + str);
-        }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.trace() -- " +
-                    "Unexcepted interruption");
-        }
+        enqueue(TRACE, str, "trace");
+    }
+
+    /**
+     * Log trace, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void trace(String fmt, Object... args){
+        if(!LOG_TRACE || shuttingDown || loggerTerminated) return;
+        enqueue(TRACE, fmt, args, "trace");
+    }
+
+    /**
+     * Log trace, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void trace(Supplier<String> msg){
+        if(!LOG_TRACE || shuttingDown || loggerTerminated) return;
+        enqueue(TRACE, msg, "trace");
     }
 
     /**
@@ -331,27 +1059,32 @@ public class TSL extends Thread{
     public void debug(Object str){
         if(!LOG_DEBUG || shuttingDown || loggerTerminated)
             return;
-        try{
-            itemsToLog.put(DEBUG + " " + str);
-        }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("ThreadSafeLogger.debug() -- " +
-                    "Unexpected interruption");
-        }
+        enqueue(DEBUG, str, "debug");
+    }
+
+    /**
+     * Log debug, formatted with String.format on the writer thread only if the level is enabled
+     * @param fmt The format string
+     * @param args The format arguments, held by reference until the message is written
+     */
+    public void debug(String fmt, Object... args){
+        if(!LOG_DEBUG || shuttingDown || loggerTerminated) return;
+        enqueue(DEBUG, fmt, args, "debug");
+    }
+
+    /**
+     * Log debug, the supplier is only called on the writer thread if the level is enabled
+     * @param msg Supplies the log message
+     */
+    public void debug(Supplier<String> msg){
+        if(!LOG_DEBUG || shuttingDown || loggerTerminated) return;
+        enqueue(DEBUG, msg, "debug");
     }
 
     private void exception(Object str){
         if(shuttingDown || loggerTerminated)
             return;
-        try{
-            itemsToLog.put(EXCEPTION + " " + str);
-        }
-        catch(InterruptedException e){
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(("ThreadSafeLogger.exception() -- " +
-                    "Unexpected interruption"));
-        }
+        enqueue(EXCEPTION, str, "exception");
     }
 
     /**
@@ -370,33 +1103,31 @@ public class TSL extends Thread{
     }
 
     /**
-     * Shutdown the logger, thread will sleep for 1000ms to allow proper flushing
+     * Shutdown the logger. Blocks until everything queued so far has been written and
+     * the writer thread has exited, or SHUTDOWN_TIMEOUT_MS passes (the number of
+     * messages left unwritten is reported on stderr)
      * NOTE: This does not kill the program, it just shutsdown the logger
+     * NOTE: With GROUP_COMMIT anything still buffered is flushed when the writers close
      */
     public void shutDown() {
-        shuttingDown = true;
         try {
-            itemsToLog.put(SHUTDOWN_REQ);
-            // Force a pause of the main thread to give the logger thread a chance to
-            // write all data to the file system
-            Thread.sleep(2000);
+            drainAndJoin();
         }
         catch(InterruptedException e){
+            Thread.currentThread().interrupt();
             throw new RuntimeException("ThreadSafeLogger.shutDown() -- " +
                     "Unexpected interruption");
         }
     }
 
     /**
-     * Shutdown the logger, sleep for a second to allow the logger to finish flushing to
-     * disk then kill the program with exit code
+     * Shutdown the logger, waiting for it to finish flushing to disk (see shutDown())
+     * then kill the program with exit code
      * NOTE: This traps the calling thread!
      */
     public void die(){
-        shuttingDown = true;
         try{
-            itemsToLog.put(SHUTDOWN_REQ);
-            Thread.sleep(2000);
+            drainAndJoin();
             System.exit(0);
         }
         catch(InterruptedException e){
@@ -431,20 +1162,40 @@ public class TSL extends Thread{
      * log message. Function is useful to see where execution may have stopped, or
      * where a specific area of interest shows up without forcing the user to add line
      * specific or message specific messages to the logger call.
-     * NOTE: It's not a particularily fast function to call
+     * NOTE: The location is looked up once per call site and cached, after that a call
+     * costs a short stack walk. Nothing is captured if INFO is off
      * @param log_message Message to add to the Class name, function name, and line number
      */
-    public void autoLog(String log_message){ info(getStackInfo(log_message)); }
+    public void autoLog(String log_message){
+        if(!LOG_INFO || shuttingDown || loggerTerminated) return;
+        enqueue(INFO, log_message, null, null, CallSite.caller(), "autoLog");
+    }
 
     /**
      * See full description above: autoLog call without log message
      */
-    public void autoLog(){ autoLog(""); }
+    public void autoLog(){
+        if(!LOG_INFO || shuttingDown || loggerTerminated) return;
+        enqueue(INFO, "", null, null, CallSite.caller(), "autoLog");
+    }
 
     /**
      * See above for full description, substitute INFO for ERR
      */
-    public void errFrom(String errMsg){ err(getStackInfo(errMsg)); }
+    public void errFrom(String errMsg){
+        if(shuttingDown || loggerTerminated) return;
+        enqueue(ERROR, errMsg, null, null, CallSite.caller(), "errFrom");
+    }
+
+    /**
+     * Log an error tagged with the first caller outside of TSL / Logic, then die. Used by
+     * Logic.require and Logic.dieFrom
+     */
+    void dieFrom(Object msg){
+        if(!shuttingDown && !loggerTerminated)
+            enqueue(ERROR, msg, null, null, CallSite.caller(), "dieFrom");
+        die();
+    }
 
     public void exceptionFromAndDie(Exception e){
         // TODO Implement
@@ -452,64 +1203,310 @@ public class TSL extends Thread{
 
     /**
      * Builds the stack information string for autologging
+     * NOTE: autoLog / errFrom no longer use this, they log a compact location instead
      */
     public String getStackInfo(Object msg){
-        // Get all stack frame for the calling thead
-        StackTraceElement[] stackFrames = Thread.currentThread().getStackTrace();
+        // The function that asked for the info, then the place it was called from
+        CallSite[] sites = CallSite.above(TSL.class.getName(), "getStackInfo", 2);
+        CallSite site = sites[1];
+        return "\n\t *** " + sites[0].methodName + " *** \n" +
+                "\t Class name:      " + site.className + "\n" +
+                "\t Function name:   " + site.methodName + "\n" +
+                "\t Line number:     " + site.lineNumber + "\n" +
+                "\t Log message:     " + msg;
+    }
+
+
+    /**
+     * Send every line to sink as well, in the format it went to the file. Lines from
+     * before the sink was added aren't replayed
+     * @param sink Called on the writer thread, see LogSink
+     */
+    public void addSink(LogSink sink){
+        if(sink == null)
+            throw new IllegalArgumentException("TSL.addSink() -- sink can't be null");
+        sinks.add(sink);
+    }
+
+    /**
+     * Stop sending lines to sink. It isn't closed, that's up to the caller
+     */
+    public void removeSink(LogSink sink){
+        sinks.remove(sink);
+    }
+
+    /**
+     * Attach key / value context to a message, e.g.
+     * TSL.get().with("user", id, "attempt", n).warn("Login failed");
+     * JSON_OUTPUT writes the pairs as the "ctx" object, the text format appends them as
+     * {user=42, attempt=3}. Values are held by reference until the message is written
+     * @param keyValues Alternating keys and values
+     * @return A handle that logs with this context, safe to keep and reuse
+     */
+    public Context with(Object... keyValues){
+        if(keyValues != null && keyValues.length == 0) keyValues = null;
+        return new Context(keyValues);
+    }
+
+    /**
+     * Get the named logger for name, its level comes from the longest configured prefix of
+     * the name (see setLevel / watchLevels), falling back to the root level
+     * @param name Dotted name, usually a package or class name
+     * @return The logger for name, the same instance every time
+     */
+    public static NamedLogger forName(String name){
+        return LevelRegistry.logger(get(), name);
+    }
+
+    /**
+     * @return forName(cls.getName())
+     */
+    public static NamedLogger forClass(Class<?> cls){
+        return forName(cls.getName());
+    }
+
+    /**
+     * Set the level for a logger name and every name under it. "root" sets the default
+     * for everything, including the LOG_TRACE / LOG_DEBUG / LOG_INFO / LOG_WARN flags.
+     * Takes effect on all threads right away
+     * @param name Logger name or prefix, or "root"
+     * @param level The new level, null to go back to inheriting from the parent name
+     */
+    public static void setLevel(String name, Level level){
+        LevelRegistry.set(name, level);
+    }
+
+    /**
+     * Turn a logger name and everything under it off completely, errors included
+     */
+    public static void setLevelOff(String name){
+        LevelRegistry.setOff(name);
+    }
+
+    /**
+     * Load the levels from a properties file, name=LEVEL per line with OFF allowed, and
+     * reload them whenever the file changes. Watching a new file stops watching the old
+     * NOTE: A reload replaces everything, levels set with setLevel() included
+     * @param path The properties file
+     */
+    public static void watchLevels(String path){
+        LevelRegistry.watch(Paths.get(path));
+    }
 
-        // Note: Depending on the JVM the frame index could be different. However, if we
-        // find the frame immediately after the frame for this function, that *should*
-        // give the frame for the calling function.
+    /**
+     * Get the calling thread's buffered handle on the logger. See ThreadLog
+     * @return The handle for the current thread, created on first use
+     */
+    public static ThreadLog threadLocal(){
+        return get().threadLogs.get();
+    }
 
-        int thisFunctionFrameIndex = -1;
-        String thisFunctionName = "getStackInfo";
-        for(int i = 0; i < stackFrames.length; ++i)
-            if(thisFunctionName.equals(stackFrames[i].getMethodName()))
-                thisFunctionFrameIndex = i;
+    private ThreadLog newThreadLog(){
+        ThreadLog handle = new ThreadLog(Thread.currentThread());
+        liveThreadLogs.add(handle);
+        if(threadLogSweeper == null){
+            synchronized(this){
+                if(threadLogSweeper == null){
+                    ScheduledExecutorService sweeper =
+                            Executors.newSingleThreadScheduledExecutor(r -> {
+                                Thread t = new Thread(r, "TSL-thread-log-sweeper");
+                                t.setDaemon(true);
+                                return t;
+                            });
+                    long period = Math.max(1, THREAD_LOG_FLUSH_MS);
+                    sweeper.scheduleWithFixedDelay(this::sweepThreadLogs, period, period,
+                            TimeUnit.MILLISECONDS);
+                    threadLogSweeper = sweeper;
+                }
+            }
+        }
+        return handle;
+    }
 
-        if(thisFunctionFrameIndex == -1){
-            err(thisFunctionName + " unable to do anything at all. This sucks.");
-            return "";
+    /**
+     * Sweeper thread: publish anything that's been sitting in a handle for longer than
+     * THREAD_LOG_FLUSH_MS, and forget handles whose thread has died
+     */
+    private void sweepThreadLogs(){
+        for(ThreadLog handle : liveThreadLogs){
+            handle.flushIfOlderThan(TimeUnit.MILLISECONDS.toNanos(THREAD_LOG_FLUSH_MS));
+            if(!handle.owner.isAlive()){
+                handle.flush();
+                liveThreadLogs.remove(handle);
+            }
         }
+    }
 
-        // Need to increment by 2 since this is called internally by autolog or require
-        int frameOfInterest = thisFunctionFrameIndex + 2;
-        if(frameOfInterest >= stackFrames.length){
-            err(thisFunctionName + " unable to do anything at all. This sucks.");
-            return "";
+    private void flushThreadLogs(){
+        for(ThreadLog handle : liveThreadLogs)
+            handle.flush();
+    }
+
+    /**
+     * Per-thread buffered handle on the logger, get one with TSL.threadLocal(). Messages
+     * collect in the handle and are handed to the writer thread as a single batch when
+     * THREAD_LOG_BATCH of them are waiting, when flush() is called, when the oldest has
+     * waited THREAD_LOG_FLUSH_MS, or when the logger shuts down. One hand off per batch
+     * instead of one per message.
+     *
+     * NOTE: Order is kept for everything logged through the same handle. Messages logged
+     * straight through TSL from the same thread can overtake buffered ones, pick one or
+     * flush() in between.
+     * NOTE: Levels are checked when the message is logged. results() / swarm() going to a
+     * binary channel skip the buffer, that channel is already cheap.
+     */
+    public final class ThreadLog {
+        private final Thread owner;
+        private List<LogEvent> buffer = new ArrayList<>();
+        private long oldestNanos;
+
+        private ThreadLog(Thread owner){
+            this.owner = owner;
         }
 
-        int internalCaller = thisFunctionFrameIndex + 1;
-        String callerName = "";
-        if(internalCaller < stackFrames.length)
-            callerName = stackFrames[internalCaller].getMethodName();
+        public void info(Object str){ if(LOG_INFO) add(INFO, str, null); }
+        public void info(String fmt, Object... args){ if(LOG_INFO) add(INFO, fmt, args); }
+        public void warn(Object str){ if(LOG_WARN) add(WARN, str, null); }
+        public void warn(String fmt, Object... args){ if(LOG_WARN) add(WARN, fmt, args); }
+        public void err(Object str){ add(ERROR, str, null); }
+        public void err(String fmt, Object... args){ add(ERROR, fmt, args); }
+        public void trace(Object str){ if(LOG_TRACE) add(TRACE, str, null); }
+        public void trace(String fmt, Object... args){ if(LOG_TRACE) add(TRACE, fmt, args); }
+        public void debug(Object str){ if(LOG_DEBUG) add(DEBUG, str, null); }
+        public void debug(String fmt, Object... args){ if(LOG_DEBUG) add(DEBUG, fmt, args); }
+        public void results(Object str){ add(RESULTS, str, null); }
+        public void results(String fmt, Object... args){ add(RESULTS, fmt, args); }
+        public void dolius(Object str){ add(DOLIUS, str, null); }
+        public void dolius(String fmt, Object... args){ add(DOLIUS, fmt, args); }
+        public void swarm(Object str){ add(SWARM, str, null); }
+        public void swarm(String fmt, Object... args){ add(SWARM, fmt, args); }
 
-        StackTraceElement elementOfInterest = stackFrames[frameOfInterest];
-        return "\n\t *** " + callerName + " *** \n" +
-                "\t Class name:      " + elementOfInterest.getClassName() + "\n" +
-                "\t Function name:   " + elementOfInterest.getMethodName() + "\n" +
-                "\t Line number:     " + elementOfInterest.getLineNumber() + "\n" +
-                "\t Log message:     " + msg;
+        /**
+         * Hand everything buffered so far to the writer thread
+         */
+        public synchronized void flush(){
+            if(buffer.isEmpty()) return;
+            List<LogEvent> batch = buffer;
+            buffer = new ArrayList<>(Math.min(batch.size(), THREAD_LOG_BATCH));
+            enqueue(BATCH, batch, "ThreadLog.flush");
+        }
+
+        private synchronized void add(int level, Object payload, Object[] args){
+            add(level, payload, args, null);
+        }
+
+        private synchronized void add(int level, Object payload, Object[] args,
+                                      Object[] context){
+            if(shuttingDown || loggerTerminated) return;
+            if((level == RESULTS && binaryResults != null)
+                    || (level == SWARM && binarySwarm != null)){
+                enqueue(level, payload, args, context, null, "ThreadLog");
+                return;
+            }
+            if(buffer.isEmpty())
+                oldestNanos = System.nanoTime();
+            buffer.add(new LogEvent(level, payload, args, context));
+            if(buffer.size() >= THREAD_LOG_BATCH
+                    || System.nanoTime() - oldestNanos >=
+                       TimeUnit.MILLISECONDS.toNanos(THREAD_LOG_FLUSH_MS))
+                flush();
+        }
+
+        private synchronized void flushIfOlderThan(long nanos){
+            if(!buffer.isEmpty() && System.nanoTime() - oldestNanos >= nanos)
+                flush();
+        }
     }
 
-    private String time_str(){
-        ldt = LocalDateTime.now();
-        int hour = ldt.getHour();
-        int min = ldt.getMinute();
-        int sec = ldt.getSecond();
-        long milli = TimeUnit.NANOSECONDS.toMillis(ldt.getNano());
-
-        String hour_s = hour < 10 ? ("0" + hour) : Integer.toString(hour);
-        String min_s = min < 10 ? ("0" + min) : Integer.toString(min);
-        String sec_s = sec < 10 ? ("0" + sec) : Integer.toString(sec);
-        String mil_s;
-        if(milli > 10 && milli < 100)
-            mil_s = "0" + milli;
-        else if(milli < 10)
-            mil_s = "00" + milli;
-        else
-            mil_s = Long.toString(milli);
+    /**
+     * Logs through the TSL with a fixed set of key / value pairs, see with()
+     */
+    public final class Context {
+        private final Object[] context;
+
+        private Context(Object[] context){
+            this.context = context;
+        }
 
-        return "("+hour_s+":"+min_s+":"+sec_s+"."+mil_s+") > ";
+        public void info(Object str){ if(LOG_INFO) log(INFO, str, null); }
+        public void info(String fmt, Object... args){ if(LOG_INFO) log(INFO, fmt, args); }
+        public void warn(Object str){ if(LOG_WARN) log(WARN, str, null); }
+        public void warn(String fmt, Object... args){ if(LOG_WARN) log(WARN, fmt, args); }
+        public void err(Object str){ log(ERROR, str, null); }
+        public void err(String fmt, Object... args){ log(ERROR, fmt, args); }
+        public void trace(Object str){ if(LOG_TRACE) log(TRACE, str, null); }
+        public void trace(String fmt, Object... args){ if(LOG_TRACE) log(TRACE, fmt, args); }
+        public void debug(Object str){ if(LOG_DEBUG) log(DEBUG, str, null); }
+        public void debug(String fmt, Object... args){ if(LOG_DEBUG) log(DEBUG, fmt, args); }
+        public void results(Object str){ log(RESULTS, str, null); }
+        public void results(String fmt, Object... args){ log(RESULTS, fmt, args); }
+        public void dolius(Object str){ log(DOLIUS, str, null); }
+        public void dolius(String fmt, Object... args){ log(DOLIUS, fmt, args); }
+        public void swarm(Object str){ log(SWARM, str, null); }
+        public void swarm(String fmt, Object... args){ log(SWARM, fmt, args); }
+
+        private void log(int level, Object payload, Object[] args){
+            if(shuttingDown || loggerTerminated) return;
+            enqueue(level, payload, args, context, null, "with");
+        }
+    }
+
+    /**
+     * A logger with its own level, get one with TSL.forName() / TSL.forClass(). The level
+     * check is a volatile read, plus the LOG_* flags for a logger that has no level of its
+     * own, so disabled debug / trace calls cost next to nothing. Messages go through the
+     * same writer thread as everything else, tagged with the logger's name.
+     */
+    public final class NamedLogger {
+        final String name;
+        // "[name] ", what the text format puts in front of the message
+        final String prefix;
+        // Level.ordinal() of the least severe level that gets through, or
+        // LevelRegistry.INHERIT to follow the LOG_* flags. Kept up to date by LevelRegistry
+        volatile int threshold;
+
+        NamedLogger(String name){
+            this.name = name;
+            this.prefix = "[" + name + "] ";
+        }
+
+        public boolean isEnabled(Level level){ return level() <= level.ordinal(); }
+        public boolean isTraceEnabled(){ return level() <= 0; }
+        public boolean isDebugEnabled(){ return level() <= 1; }
+
+        public void trace(Object str){ if(level() <= 0) log(TRACE, str, null); }
+        public void trace(String fmt, Object... args){ if(level() <= 0) log(TRACE, fmt, args); }
+        public void trace(Supplier<String> msg){ if(level() <= 0) log(TRACE, msg, null); }
+        public void debug(Object str){ if(level() <= 1) log(DEBUG, str, null); }
+        public void debug(String fmt, Object... args){ if(level() <= 1) log(DEBUG, fmt, args); }
+        public void debug(Supplier<String> msg){ if(level() <= 1) log(DEBUG, msg, null); }
+        public void info(Object str){ if(level() <= 2) log(INFO, str, null); }
+        public void info(String fmt, Object... args){ if(level() <= 2) log(INFO, fmt, args); }
+        public void info(Supplier<String> msg){ if(level() <= 2) log(INFO, msg, null); }
+        public void warn(Object str){ if(level() <= 3) log(WARN, str, null); }
+        public void warn(String fmt, Object... args){ if(level() <= 3) log(WARN, fmt, args); }
+        public void warn(Supplier<String> msg){ if(level() <= 3) log(WARN, msg, null); }
+        public void err(Object str){ if(level() <= 4) log(ERROR, str, null); }
+        public void err(String fmt, Object... args){ if(level() <= 4) log(ERROR, fmt, args); }
+        public void err(Supplier<String> msg){ if(level() <= 4) log(ERROR, msg, null); }
+
+        @Override
+        public String toString(){
+            return name;
+        }
+
+        boolean enabled(int severity){
+            return level() <= severity;
+        }
+
+        private int level(){
+            int level = threshold;
+            return level != LevelRegistry.INHERIT ? level : LevelRegistry.flagThreshold();
+        }
+
+        private void log(int level, Object payload, Object[] args){
+            if(shuttingDown || loggerTerminated) return;
+            enqueue(level, payload, args, null, null, this, name);
+        }
     }
 }
@@ -0,0 +1,59 @@
+package javalibs;
+/**
+ * Copyright (javalibs.c) 2018 Sean Grimes. All rights reserved.
+ * License: MIT License
+ */
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+
+/**
+ * Renders an epoch millisecond timestamp as TSL's "(HH:mm:ss.mmm) > " prefix straight
+ * into a reusable char buffer. The HH:mm:ss part is only re-rendered when the second
+ * changes, otherwise only the three millisecond digits are touched.
+ *
+ * NOTE: Not thread safe, each writer thread needs its own encoder. The returned buffer is
+ * overwritten by the next call.
+ */
+final class TimestampEncoder {
+    private static final int SECONDS_PER_DAY = 86400;
+    private final char[] buf = "(00:00:00.000) > ".toCharArray();
+    private final ZoneRules rules;
+    private long cachedSecond = Long.MIN_VALUE;
+
+    TimestampEncoder(){
+        this(ZoneId.systemDefault());
+    }
+
+    TimestampEncoder(ZoneId zone){
+        this.rules = zone.getRules();
+    }
+
+    /**
+     * @param epochMillis Milliseconds since the epoch
+     * @return The shared buffer holding "(HH:mm:ss.mmm) > "
+     */
+    char[] encode(long epochMillis){
+        long second = Math.floorDiv(epochMillis, 1000L);
+        if(second != this.cachedSecond){
+            this.cachedSecond = second;
+            // Offset lookup only happens once a second so DST changes are still picked up
+            int offset = this.rules.getOffset(Instant.ofEpochSecond(second)).getTotalSeconds();
+            int secOfDay = (int)Math.floorMod(second + offset, (long)SECONDS_PER_DAY);
+            twoDigits(secOfDay / 3600, 1);
+            twoDigits((secOfDay / 60) % 60, 4);
+            twoDigits(secOfDay % 60, 7);
+        }
+        int millis = (int)Math.floorMod(epochMillis, 1000L);
+        this.buf[10] = (char)('0' + millis / 100);
+        this.buf[11] = (char)('0' + (millis / 10) % 10);
+        this.buf[12] = (char)('0' + millis % 10);
+        return this.buf;
+    }
+
+    private void twoDigits(int value, int at){
+        this.buf[at] = (char)('0' + value / 10);
+        this.buf[at + 1] = (char)('0' + value % 10);
+    }
+}
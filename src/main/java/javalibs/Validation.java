@@ -1,31 +1,46 @@
 package javalibs;
 
 /**
+ * The number checks scan the chars rather than parsing and catching the exception, so a
+ * column full of blanks and "N/A"s costs no more to check than a clean one. They accept
+ * exactly what Integer.parseInt / Long.parseLong / Double.parseDouble accept, null is
+ * never valid.
+ *
  * @author Sean Grimes, sean@seanpgrimes.com
  * @since 6/6/15
  */
 @SuppressWarnings("unused")
 public class Validation{
     public static boolean Int(String number){
-        try{
-            //noinspection ResultOfMethodCallIgnored
-            Integer.parseInt(number);
-            return true;
-        }
-        catch(Exception e){
-            return false;
-        }
+        return Int((CharSequence)number);
+    }
+
+    public static boolean Int(CharSequence number){
+        return number != null && NumUtils.isInt(number, 0, number.length());
+    }
+
+    public static boolean Int(CharSequence number, int start, int end){
+        return number != null && NumUtils.isInt(number, start, end);
+    }
+
+    public static boolean Long(CharSequence number){
+        return number != null && NumUtils.isLong(number, 0, number.length());
+    }
+
+    public static boolean Long(CharSequence number, int start, int end){
+        return number != null && NumUtils.isLong(number, start, end);
     }
 
     public static boolean Double(String number){
-        try{
-            //noinspection ResultOfMethodCallIgnored
-            Double.parseDouble(number);
-            return true;
-        }
-        catch(Exception e){
-            return false;
-        }
+        return Double((CharSequence)number);
+    }
+
+    public static boolean Double(CharSequence number){
+        return number != null && NumUtils.isDouble(number, 0, number.length());
+    }
+
+    public static boolean Double(CharSequence number, int start, int end){
+        return number != null && NumUtils.isDouble(number, start, end);
     }
 
     public static boolean between(int num, int start, int end){